@@ -0,0 +1,109 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+/**
+ * Creating an account that has nothing stored, and loading one that does,
+ * from each store and format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountLoadBenchmark {
+
+    @Param({ "100", "10000" })
+    public int accounts;
+
+    @Param({ "1", "16" })
+    public int contexts;
+
+    @Param({ "files", "segment" })
+    public String store;
+
+    @Param({ "json", "binary" })
+    public String format;
+
+    private final AtomicLong created = new AtomicLong();
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkRuntime.start("persistence { write-behind = false, store = "
+                + this.store + ", format = " + this.format + " }");
+        Currency currency = SnowballCurrency.INSTANCE;
+        Cause cause = Cause.of(this);
+        Set<Context>[] contextSets =
+                TransactionBenchmark.contextSets(this.contexts);
+        for (CSAccount account : TransactionBenchmark.accounts("saved-",
+                this.accounts)) {
+            for (Set<Context> contextSet : contextSets) {
+                account.setBalance(currency, BigDecimal.valueOf(12345, 2),
+                        cause, contextSet);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkRuntime.stop();
+    }
+
+    @Benchmark
+    public CSAccount create() {
+        return new CSVirtualAccount("new-" + this.created.getAndIncrement());
+    }
+
+    @Benchmark
+    public CSAccount load() {
+        return new CSVirtualAccount("saved-"
+                + ThreadLocalRandom.current().nextInt(this.accounts));
+    }
+
+}
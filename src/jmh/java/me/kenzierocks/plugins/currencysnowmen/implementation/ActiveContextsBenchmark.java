@@ -0,0 +1,112 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.context.ContextCalculator;
+import org.spongepowered.api.service.economy.account.Account;
+
+/**
+ * {@link CSAccount#getActiveContexts()} with a cached result and when the
+ * calculators have to run again, for a varying number of calculators.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActiveContextsBenchmark {
+
+    private static final class KeyCalculator
+            implements ContextCalculator<Account> {
+
+        private final String key;
+
+        KeyCalculator(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void accumulateContexts(Account calculable,
+                Set<Context> accumulator) {
+            accumulator.add(new Context(this.key, calculable.getIdentifier()));
+        }
+
+        @Override
+        public boolean matches(Context context, Account subject) {
+            return context.getKey().equals(this.key);
+        }
+
+    }
+
+    @Param({ "1", "8" })
+    public int calculators;
+
+    private CSAccount account;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkRuntime.start("");
+        for (int i = 0; i < this.calculators; i++) {
+            CSEconomyService.INSTANCE
+                    .registerContextCalculator(new KeyCalculator("key" + i));
+        }
+        this.account = TransactionBenchmark.accounts("ctx-", 1)[0];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkRuntime.stop();
+    }
+
+    @Benchmark
+    public Set<Context> cached() {
+        return this.account.getActiveContexts();
+    }
+
+    @Benchmark
+    public Set<Context> recalculated() {
+        this.account.invalidateContexts();
+        return this.account.getActiveContexts();
+    }
+
+}
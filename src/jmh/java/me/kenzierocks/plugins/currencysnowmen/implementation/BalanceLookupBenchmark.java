@@ -0,0 +1,114 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+/**
+ * Latency of balance reads on random accounts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceLookupBenchmark {
+
+    @Param({ "100", "10000" })
+    public int accounts;
+
+    @Param({ "1", "16" })
+    public int contexts;
+
+    @Param({ "snowballs", "benchmarks" })
+    public String currency;
+
+    private CSAccount[] pool;
+    private Set<Context>[] contextSets;
+    private Currency cur;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkRuntime.start("");
+        this.cur = CSEconomyService.INSTANCE
+                .getCurrencyByIdentifier(this.currency);
+        Cause cause = Cause.of(this);
+        this.contextSets = TransactionBenchmark.contextSets(this.contexts);
+        this.pool = TransactionBenchmark.accounts("read-", this.accounts);
+        for (CSAccount account : this.pool) {
+            for (Set<Context> contextSet : this.contextSets) {
+                account.deposit(this.cur, BigDecimal.valueOf(12345, 2), cause,
+                        contextSet);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkRuntime.stop();
+    }
+
+    private CSAccount randomAccount() {
+        return this.pool[ThreadLocalRandom.current().nextInt(this.accounts)];
+    }
+
+    private Set<Context> randomContexts() {
+        return this.contextSets[ThreadLocalRandom.current()
+                .nextInt(this.contexts)];
+    }
+
+    @Benchmark
+    public BigDecimal getBalance() {
+        return randomAccount().getBalance(this.cur, randomContexts());
+    }
+
+    @Benchmark
+    public Map<Currency, BigDecimal> getBalances() {
+        return randomAccount().getBalances(randomContexts());
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+import org.spongepowered.api.text.Text;
+
+import me.kenzierocks.plugins.currencysnowmen.ExtendedCurrency;
+
+/**
+ * A currency that needs no game running, for benchmarks.
+ */
+final class BenchmarkCurrency implements ExtendedCurrency {
+
+    static final BenchmarkCurrency INSTANCE = new BenchmarkCurrency();
+
+    static void register() {
+        if (CSEconomyService.INSTANCE
+                .getCurrencyByIdentifier(INSTANCE.getIdentifer()) == null) {
+            CSEconomyService.INSTANCE.registerCurrency(INSTANCE);
+        }
+    }
+
+    private BenchmarkCurrency() {
+    }
+
+    @Override
+    public Text getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public Text getPluralDisplayName() {
+        return null;
+    }
+
+    @Override
+    public Text getSymbol() {
+        return null;
+    }
+
+    @Override
+    public Text format(BigDecimal amount) {
+        return null;
+    }
+
+    @Override
+    public Text format(BigDecimal amount, int numFractionDigits) {
+        return null;
+    }
+
+    @Override
+    public int getDefaultFractionDigits() {
+        return 2;
+    }
+
+    @Override
+    public boolean isDefault() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsNegatives() {
+        return true;
+    }
+
+    @Override
+    public Optional<BigDecimal> getMaximumAccountBalance() {
+        return Optional.empty();
+    }
+
+    @Override
+    public BigDecimal getDefaultBalance() {
+        return BigDecimal.ZERO;
+    }
+
+    @Override
+    public String getIdentifer() {
+        return "benchmarks";
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.LoggerFactory;
+import org.spongepowered.api.Sponge;
+
+import com.google.common.base.Defaults;
+
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
+
+import me.kenzierocks.plugins.currencysnowmen.CSConfig;
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Just enough of a server for the economy core to run in a benchmark. Every
+ * Sponge manager is a stub that does nothing: events have no listeners,
+ * services are missing and scheduled tasks never run, so write-behind saves
+ * stay queued. Accounts are kept in a temporary directory.
+ */
+final class BenchmarkRuntime {
+
+    private static final Map<Class<?>, Object> STUBS =
+            new ConcurrentHashMap<>();
+    private static final InvocationHandler STUB_HANDLER =
+            (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return "stub";
+                    }
+                }
+                Class<?> type = method.getReturnType();
+                if (type.isPrimitive()) {
+                    return Defaults.defaultValue(type);
+                }
+                if (type == Optional.class) {
+                    return Optional.empty();
+                }
+                if (type.isInstance(proxy)) {
+                    // builders return themselves
+                    return proxy;
+                }
+                return type.isInterface() ? stub(type) : null;
+            };
+
+    private static Path dir;
+
+    /**
+     * Starts the runtime, if it isn't running yet, with the given HOCON
+     * config. Settings that aren't given have their usual defaults.
+     */
+    static synchronized void start(String config) throws IOException {
+        if (dir != null) {
+            return;
+        }
+        dir = Files.createTempDirectory("currencysnowmen-bench");
+        for (Field field : Sponge.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())
+                    && field.getType().isInterface()) {
+                set(null, field, stub(field.getType()));
+            }
+        }
+        Path configFile = dir.resolve("currencysnowmen.conf");
+        Files.write(configFile, config.getBytes(StandardCharsets.UTF_8));
+        CSConfig csConfig = CSConfig.load(
+                HoconConfigurationLoader.builder().setPath(configFile).build());
+        CSPlugin plugin = new CSPlugin();
+        set(plugin, "logger", LoggerFactory.getLogger("Currency☃"));
+        set(plugin, "configDir", dir);
+        set(plugin, "config", csConfig);
+        CSEconomyService service = CSEconomyService.INSTANCE;
+        if (service.getCurrencyByIdentifier(
+                SnowballCurrency.INSTANCE.getIdentifer()) == null) {
+            service.registerCurrency(SnowballCurrency.INSTANCE);
+        }
+        BenchmarkCurrency.register();
+        service.getEvents().setMode(
+                EventDispatcher.Mode.byName(csConfig.getEventMode()));
+        if (csConfig.isWriteBehind()) {
+            service.getFlusher().start(plugin,
+                    csConfig.getMaxStalenessMillis());
+        }
+    }
+
+    /**
+     * Writes what is pending, then deletes every stored account.
+     */
+    static synchronized void stop() throws IOException {
+        if (dir == null) {
+            return;
+        }
+        CSEconomyService.INSTANCE.shutdown();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory,
+                    IOException exc) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+        dir = null;
+    }
+
+    /**
+     * A do-nothing implementation of {@code type}, shared by all callers.
+     */
+    static <T> T stub(Class<T> type) {
+        return type.cast(STUBS.computeIfAbsent(type,
+                t -> Proxy.newProxyInstance(t.getClassLoader(),
+                        new Class<?>[] { t }, STUB_HANDLER)));
+    }
+
+    private static void set(Object target, String name, Object value) {
+        try {
+            set(target, target.getClass().getDeclaredField(name), value);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void set(Object target, Field field, Object value) {
+        try {
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private BenchmarkRuntime() {
+    }
+
+}
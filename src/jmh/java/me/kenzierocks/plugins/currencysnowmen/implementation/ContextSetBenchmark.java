@@ -0,0 +1,97 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.service.context.Context;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * {@link ContextSet#of(Set)} for combinations that several threads intern
+ * for the first time at once. Fails if a combination ever ends up with two
+ * canonical instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContextSetBenchmark {
+
+    private static final int COMBINATIONS = 1024;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+    }
+
+    private final AtomicInteger iteration = new AtomicInteger();
+    private volatile String prefix;
+    private final ConcurrentMap<Set<Context>, ContextSet> seen =
+            new ConcurrentHashMap<>();
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        // new combinations every iteration, so they are interned again
+        this.prefix = "i" + this.iteration.getAndIncrement() + "-";
+        this.seen.clear();
+    }
+
+    @Benchmark
+    public ContextSet intern(Cursor cursor) {
+        Set<Context> contexts = ImmutableSet.of(new Context("world",
+                this.prefix + cursor.next++ % COMBINATIONS));
+        ContextSet interned = ContextSet.of(contexts);
+        ContextSet first = this.seen.putIfAbsent(contexts, interned);
+        if (first != null && first != interned) {
+            throw new IllegalStateException(
+                    "two canonical instances of " + contexts);
+        }
+        return interned;
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Compares the streaming JSON codec with the tree-based adapter it replaced,
+ * on accounts with many multi-context balances. Run with {@code -prof gc} to
+ * compare allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    @SuppressWarnings("serial")
+    private static final Type DATA_TYPE =
+            new TypeToken<Table<Currency, Set<Context>, BigDecimal>>() {
+            }.getType();
+    private static final Gson TREE_JSON = new GsonBuilder()
+            .registerTypeAdapter(DATA_TYPE, new TreeDataMapAdapter())
+            .create();
+
+    @Param({ "16", "256", "4096" })
+    public int balances;
+
+    private Table<Currency, Set<Context>, BigDecimal> table;
+    private byte[] json;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkCurrency.register();
+        this.table = HashBasedTable.create();
+        for (int i = 0; i < this.balances; i++) {
+            this.table.put(BenchmarkCurrency.INSTANCE,
+                    ContextSet.of(ImmutableSet.of(
+                            new Context("world", "world" + i % 64),
+                            new Context("server", "server" + i / 64),
+                            new Context("region", "spawn"))),
+                    BigDecimal.valueOf(i * 1000L + 17, 2));
+        }
+        this.json = JsonAccountCodec.INSTANCE.encode(this.table);
+    }
+
+    @Benchmark
+    public byte[] encodeStreaming() throws IOException {
+        return JsonAccountCodec.INSTANCE.encode(this.table);
+    }
+
+    @Benchmark
+    public byte[] encodeTree() {
+        return TREE_JSON.toJson(this.table, DATA_TYPE)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Table<Currency, Set<Context>, BigDecimal> decodeStreaming()
+            throws IOException {
+        Table<Currency, Set<Context>, BigDecimal> target =
+                HashBasedTable.create();
+        JsonAccountCodec.INSTANCE.decode(ByteBuffer.wrap(this.json), target);
+        return target;
+    }
+
+    @Benchmark
+    public Table<Currency, Set<Context>, BigDecimal> decodeTree() {
+        return TREE_JSON.fromJson(
+                new String(this.json, StandardCharsets.UTF_8), DATA_TYPE);
+    }
+
+}
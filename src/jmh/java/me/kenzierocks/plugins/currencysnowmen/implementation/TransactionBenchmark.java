@@ -0,0 +1,158 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+import org.spongepowered.api.service.economy.transaction.TransferResult;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Deposit, withdraw and transfer throughput between random accounts, with
+ * write-behind on so nothing is written while measuring. "snowballs" keeps
+ * balances as fixed-point units, "benchmarks" as {@link BigDecimal}s. Run
+ * with {@code -prof gc} to see the allocation per transaction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionBenchmark {
+
+    @Param({ "100", "10000" })
+    public int accounts;
+
+    @Param({ "1", "16" })
+    public int contexts;
+
+    @Param({ "snowballs", "benchmarks" })
+    public String currency;
+
+    @Param({ "sync" })
+    public String events;
+
+    private CSAccount[] pool;
+    private Set<Context>[] contextSets;
+    private Set<Context> missingContexts;
+    private Currency cur;
+    private Cause cause;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkRuntime.start("events { mode = " + this.events + " }");
+        this.cur = CSEconomyService.INSTANCE
+                .getCurrencyByIdentifier(this.currency);
+        this.cause = Cause.of(this);
+        this.contextSets = contextSets(this.contexts);
+        this.missingContexts = ImmutableSet.of(new Context("world", "none"));
+        this.pool = accounts("tx-", this.accounts);
+        for (CSAccount account : this.pool) {
+            for (Set<Context> contextSet : this.contextSets) {
+                account.deposit(this.cur, BigDecimal.valueOf(1000000),
+                        this.cause, contextSet);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkRuntime.stop();
+    }
+
+    @SuppressWarnings("unchecked")
+    static Set<Context>[] contextSets(int count) {
+        Set<Context>[] sets = (Set<Context>[]) new Set<?>[count];
+        for (int i = 0; i < count; i++) {
+            sets[i] = ImmutableSet.of(new Context("world", "world" + i));
+        }
+        return sets;
+    }
+
+    static CSAccount[] accounts(String prefix, int count) {
+        CSAccount[] pool = new CSAccount[count];
+        for (int i = 0; i < count; i++) {
+            pool[i] = (CSAccount) CSEconomyService.INSTANCE
+                    .createVirtualAccount(prefix + i).get();
+        }
+        return pool;
+    }
+
+    private CSAccount randomAccount() {
+        return this.pool[ThreadLocalRandom.current().nextInt(this.accounts)];
+    }
+
+    private Set<Context> randomContexts() {
+        return this.contextSets[ThreadLocalRandom.current()
+                .nextInt(this.contexts)];
+    }
+
+    @Benchmark
+    public TransactionResult deposit() {
+        return randomAccount().deposit(this.cur, BigDecimal.ONE, this.cause,
+                randomContexts());
+    }
+
+    @Benchmark
+    public TransactionResult withdraw() {
+        return randomAccount().withdraw(this.cur, BigDecimal.ONE, this.cause,
+                randomContexts());
+    }
+
+    @Benchmark
+    public TransferResult transfer() {
+        return randomAccount().transfer(randomAccount(), this.cur,
+                BigDecimal.ONE, this.cause, randomContexts());
+    }
+
+    @Benchmark
+    public TransactionResult resetMissingBalance() {
+        return randomAccount().resetBalance(this.cur, this.cause,
+                this.missingContexts);
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.loader.ConfigurationLoader;
+
+/**
+ * Plugin settings, read from the default config file. Missing keys are
+ * written back with their defaults so the file documents itself.
+ */
+public final class CSConfig {
+
+    public static CSConfig
+            load(ConfigurationLoader<CommentedConfigurationNode> loader)
+                    throws IOException {
+        CommentedConfigurationNode root = loader.load();
+        CSConfig config = new CSConfig(root);
+        loader.save(root);
+        return config;
+    }
+
+    private static CommentedConfigurationNode node(
+            CommentedConfigurationNode root, Object def, String comment,
+            Object... path) {
+        CommentedConfigurationNode node = root.getNode(path);
+        if (node.isVirtual()) {
+            node.setValue(def);
+        }
+        if (!node.getComment().isPresent()) {
+            node.setComment(comment);
+        }
+        return node;
+    }
+
+    private final boolean writeBehind;
+    private final long maxStalenessMillis;
+    private final boolean journal;
+    private final int journalCompactThreshold;
+    private final long flushBudgetMillis;
+    private final boolean fsync;
+    private final long groupCommitMillis;
+    private final long depositFoldMillis;
+    private final String storeType;
+    private final String format;
+    private final int cacheMaxAccounts;
+    private final long cacheIdleMillis;
+    private final long cacheSweepMillis;
+    private final int warmSetSize;
+    private final String eventMode;
+    private final long metricsDumpMillis;
+    private final int asyncThreads;
+    private final int asyncQueueSize;
+
+    private CSConfig(CommentedConfigurationNode root) {
+        this.writeBehind = node(root, true,
+                "If true, account saves are queued and written by a "
+                        + "background task instead of on every transaction.",
+                "persistence", "write-behind").getBoolean(true);
+        this.maxStalenessMillis = Math.max(50, node(root, 5000L,
+                "The longest time, in milliseconds, a changed account may "
+                        + "wait before it is written when write-behind is on.",
+                "persistence", "max-staleness-millis").getLong(5000L));
+        this.journal = node(root, false,
+                "If true, each balance change is appended to a per-account "
+                        + "journal and full snapshots are only written when "
+                        + "the journal is compacted.",
+                "persistence", "journal").getBoolean(false);
+        this.journalCompactThreshold = Math.max(1, node(root, 256,
+                "The number of journal records an account may collect "
+                        + "before it is compacted into a new snapshot.",
+                "persistence", "journal-compact-threshold").getInt(256));
+        this.flushBudgetMillis = Math.max(1, node(root, 10L,
+                "How many milliseconds of each tick /cs flush may spend "
+                        + "saving and unloading accounts.",
+                "persistence", "flush-budget-millis").getLong(10L));
+        this.fsync = node(root, true,
+                "If true, a save only completes once the account is on "
+                        + "disk, so it survives a power loss. Saves made at "
+                        + "the same time share their disk syncs.",
+                "persistence", "fsync").getBoolean(true);
+        this.groupCommitMillis = Math.max(0, node(root, 2L,
+                "How many milliseconds a save waits for other saves to "
+                        + "share a disk sync with. Higher values sync less "
+                        + "often but make each save slower.",
+                "persistence", "group-commit-millis").getLong(2L));
+        this.depositFoldMillis = Math.max(50, node(root, 1000L,
+                "How often, in milliseconds, deposits collected for "
+                        + "currencies that accumulate them are added to "
+                        + "balances and saved.",
+                "deposits", "fold-interval-millis").getLong(1000L));
+        this.storeType = node(root, "files",
+                "Where account snapshots are kept: \"files\" for one file "
+                        + "per account, \"segment\" for a few large "
+                        + "memory-mapped files, \"h2\" or \"sqlite\" for a "
+                        + "database in the config directory, or \"memory\" "
+                        + "to not keep them at all. The database drivers "
+                        + "aren't bundled; the server has to provide the "
+                        + "H2 or SQLite JDBC driver. Use /cs migrate to copy "
+                        + "accounts to another store before switching.",
+                "persistence", "store").getString("files");
+        this.format = node(root, "json",
+                "How account data is encoded: \"json\" or \"binary\". "
+                        + "Data in the other format is still read, and is "
+                        + "converted when it is next written.",
+                "persistence", "format").getString("json");
+        this.cacheMaxAccounts = Math.max(1, node(root, 5000,
+                "The most accounts kept in memory. Least recently used "
+                        + "accounts of offline players are unloaded first.",
+                "cache", "max-accounts").getInt(5000));
+        this.cacheIdleMillis = TimeUnit.MINUTES.toMillis(Math.max(1,
+                node(root, 30,
+                        "Minutes after which an account of an offline player "
+                                + "that has not been used is unloaded.",
+                        "cache", "idle-minutes").getLong(30)));
+        this.cacheSweepMillis = TimeUnit.SECONDS.toMillis(Math.max(1,
+                node(root, 30,
+                        "How often, in seconds, to look for accounts to "
+                                + "unload.",
+                        "cache", "sweep-interval-seconds").getLong(30)));
+        this.warmSetSize = Math.max(0, node(root, 200,
+                "How many of the most recently used accounts to remember on "
+                        + "shutdown and load in the background on startup. "
+                        + "0 disables this.",
+                "cache", "warm-set-size").getInt(200));
+        this.eventMode = node(root, "sync",
+                "When economy transaction events are posted: \"sync\" "
+                        + "before each transaction, so listeners can cancel "
+                        + "it; \"listeners\" the same, but only while a "
+                        + "listener is registered through Currency☃; or "
+                        + "\"async\" after each transaction, from a "
+                        + "background thread, for listeners that only watch; "
+                        + "events are dropped if listeners fall far behind.",
+                "events", "mode").getString("sync");
+        this.metricsDumpMillis = TimeUnit.SECONDS.toMillis(Math.max(0,
+                node(root, 60,
+                        "How often, in seconds, to write metrics.prom to the "
+                                + "config directory for monitoring to "
+                                + "scrape. 0 disables it.",
+                        "metrics", "dump-interval-seconds").getLong(60)));
+        this.asyncThreads = Math.max(1, node(root, 4,
+                "How many threads run economy operations requested through "
+                        + "the asynchronous API.",
+                "async", "threads").getInt(4));
+        this.asyncQueueSize = Math.max(1, node(root, 256,
+                "How many asynchronous operations may wait for a thread. "
+                        + "Further requests are turned away until there is "
+                        + "room.",
+                "async", "queue-size").getInt(256));
+    }
+
+    public boolean isWriteBehind() {
+        return this.writeBehind;
+    }
+
+    public long getMaxStalenessMillis() {
+        return this.maxStalenessMillis;
+    }
+
+    public boolean isJournal() {
+        return this.journal;
+    }
+
+    public int getJournalCompactThreshold() {
+        return this.journalCompactThreshold;
+    }
+
+    public long getFlushBudgetMillis() {
+        return this.flushBudgetMillis;
+    }
+
+    public boolean isFsync() {
+        return this.fsync;
+    }
+
+    public long getGroupCommitMillis() {
+        return this.groupCommitMillis;
+    }
+
+    public long getDepositFoldMillis() {
+        return this.depositFoldMillis;
+    }
+
+    public String getStoreType() {
+        return this.storeType;
+    }
+
+    public String getFormat() {
+        return this.format;
+    }
+
+    public int getCacheMaxAccounts() {
+        return this.cacheMaxAccounts;
+    }
+
+    public long getCacheIdleMillis() {
+        return this.cacheIdleMillis;
+    }
+
+    public long getCacheSweepMillis() {
+        return this.cacheSweepMillis;
+    }
+
+    public int getWarmSetSize() {
+        return this.warmSetSize;
+    }
+
+    public String getEventMode() {
+        return this.eventMode;
+    }
+
+    /**
+     * The metrics dump interval, or 0 if metrics aren't written.
+     */
+    public long getMetricsDumpMillis() {
+        return this.metricsDumpMillis;
+    }
+
+    public int getAsyncThreads() {
+        return this.asyncThreads;
+    }
+
+    public int getAsyncQueueSize() {
+        return this.asyncQueueSize;
+    }
+
+}
@@ -28,32 +28,41 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.args.CommandElement;
 import org.spongepowered.api.command.args.GenericArguments;
+import org.spongepowered.api.command.spec.CommandExecutor;
 import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.config.ConfigDir;
+import org.spongepowered.api.config.DefaultConfig;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.event.game.state.GamePreInitializationEvent;
+import org.spongepowered.api.event.game.state.GameStartedServerEvent;
+import org.spongepowered.api.event.game.state.GameStoppingServerEvent;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.scheduler.SpongeExecutorService;
 import org.spongepowered.api.service.ServiceManager;
 import org.spongepowered.api.service.economy.EconomyService;
-import org.spongepowered.api.service.economy.account.Account;
 import org.spongepowered.api.service.economy.account.UniqueAccount;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 
-import me.kenzierocks.plugins.currencysnowmen.implementation.CSAccount;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.loader.ConfigurationLoader;
+
 import me.kenzierocks.plugins.currencysnowmen.implementation.CSEconomyService;
+import me.kenzierocks.plugins.currencysnowmen.implementation.EventDispatcher;
+import me.kenzierocks.plugins.currencysnowmen.implementation.Leaderboard;
 import me.kenzierocks.plugins.currencysnowmen.implementation.SnowballCurrency;
 
 @Plugin(id = CSPlugin.ID, name = CSPlugin.NAME, version = CSPlugin.VERSION)
@@ -62,6 +71,7 @@ public class CSPlugin {
     public static final String ID = "@ID@";
     public static final String NAME = "@NAME@";
     public static final String VERSION = "@VERSION@";
+    private static final String ADMIN_PERMISSION = "currencysnowmen.admin.";
     private static CSPlugin INSTANCE;
 
     public static CSPlugin getInstance() {
@@ -73,17 +83,26 @@ public class CSPlugin {
     @Inject
     @ConfigDir(sharedRoot = false)
     private Path configDir;
+    @Inject
+    @DefaultConfig(sharedRoot = false)
+    private ConfigurationLoader<CommentedConfigurationNode> configLoader;
+    private CSConfig config;
 
     {
         INSTANCE = this;
     }
 
     private SpongeExecutorService executor;
+    private SpongeExecutorService asyncExecutor;
 
     public Logger getLogger() {
         return this.logger;
     }
 
+    public CSConfig getConfig() {
+        return this.config;
+    }
+
     public SpongeExecutorService getExecutor() {
         if (this.executor == null) {
             this.executor = Sponge.getScheduler().createSyncExecutor(this);
@@ -91,6 +110,13 @@ public class CSPlugin {
         return this.executor;
     }
 
+    public synchronized SpongeExecutorService getAsyncExecutor() {
+        if (this.asyncExecutor == null) {
+            this.asyncExecutor = Sponge.getScheduler().createAsyncExecutor(this);
+        }
+        return this.asyncExecutor;
+    }
+
     @Listener
     public void onGamePreInitialization(GamePreInitializationEvent event) {
         this.logger.info("Loading " + NAME + " v" + VERSION);
@@ -100,12 +126,149 @@ public class CSPlugin {
             throw new RuntimeException("Cannot use the plugin with no configs!",
                     e);
         }
+        try {
+            this.config = CSConfig.load(this.configLoader);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the plugin config!", e);
+        }
         ServiceManager serviceManager = Sponge.getServiceManager();
         CSEconomyService econService = CSEconomyService.INSTANCE;
         serviceManager.setProvider(this, EconomyService.class, econService);
         econService.registerCurrency(SnowballCurrency.INSTANCE);
-        Sponge.getCommandManager().register(this,
-                CommandSpec.builder().executor((src, args) -> {
+        econService.getEvents().setMode(
+                EventDispatcher.Mode.byName(this.config.getEventMode()));
+        if (this.config.isWriteBehind()) {
+            econService.getFlusher().start(this,
+                    this.config.getMaxStalenessMillis());
+        }
+        econService.getAccumulator().start(this,
+                this.config.getDepositFoldMillis());
+        econService.startEviction(this, this.config.getCacheMaxAccounts(),
+                this.config.getCacheIdleMillis(),
+                this.config.getCacheSweepMillis());
+        if (this.config.getMetricsDumpMillis() > 0) {
+            econService.getMetrics().start(this,
+                    this.config.getMetricsDumpMillis(),
+                    this.configDir.resolve("metrics.prom"));
+        }
+        registerCommands(econService);
+        this.logger.info("Loaded " + NAME + " v" + VERSION);
+    }
+
+    private void registerCommands(CSEconomyService econService) {
+        Sponge.getCommandManager().register(this, CommandSpec.builder()
+                .child(adminCommand("cache", (src, args) -> {
+                    src.sendMessage(Text.of(
+                            "Account cache: " + econService.getCacheStats()));
+                    return CommandResult.success();
+                }), "cache")
+                .child(adminCommand("stats", (src, args) -> {
+                    for (String line : econService.getMetrics().describe()) {
+                        src.sendMessage(Text.of(line));
+                    }
+                    return CommandResult.success();
+                }), "stats")
+                .child(adminCommand("top", (src, args) -> {
+                    Leaderboard top = econService.getLeaderboard();
+                    for (Leaderboard.Entry e : top.getTop(
+                            SnowballCurrency.INSTANCE, ImmutableSet.of(), 10)) {
+                        src.sendMessage(Text.of("#" + e.getRank() + " "
+                                + e.getAccountId() + ": " + e.getBalance()));
+                    }
+                    if (src instanceof Player) {
+                        top.getEntry(SnowballCurrency.INSTANCE,
+                                ImmutableSet.of(),
+                                econService.createAccount(
+                                        ((Player) src).getUniqueId()).get()
+                                        .getIdentifier())
+                                .ifPresent(e -> src.sendMessage(
+                                        Text.of("You are #" + e.getRank())));
+                    }
+                    return CommandResult.success();
+                }), "top")
+                .child(adminCommand("summary", (src, args) -> {
+                    econService
+                            .summarizeBalances(SnowballCurrency.INSTANCE,
+                                    ImmutableSet.of())
+                            .thenAcceptAsync(s -> {
+                                src.sendMessage(Text.of(s.getCount()
+                                        + " accounts hold " + s.getSum()
+                                        + ", min " + s.getMin().orElse(null)
+                                        + ", max " + s.getMax().orElse(null)
+                                        + ", median " + s.getPercentile(0.5)
+                                        + ", p99 " + s.getPercentile(0.99)));
+                                double[] bounds = s.getHistogramBounds(10);
+                                long[] counts = s.getHistogram(10);
+                                for (int i = 0; i < counts.length; i++) {
+                                    src.sendMessage(Text.of(
+                                            ">= " + bounds[i] + ": "
+                                                    + counts[i]));
+                                }
+                            }, getExecutor());
+                    return CommandResult.success();
+                }), "summary")
+                .child(adminCommand("above", (src, args) -> {
+                    BigDecimal amount;
+                    try {
+                        amount = new BigDecimal(
+                                args.<String> getOne("amount").orElse("0"));
+                    } catch (NumberFormatException e) {
+                        src.sendMessage(Text.of(TextColors.RED,
+                                "Not an amount"));
+                        return CommandResult.empty();
+                    }
+                    econService
+                            .summarizeBalances(SnowballCurrency.INSTANCE,
+                                    ImmutableSet.of())
+                            .thenAcceptAsync(s -> src.sendMessage(Text.of(
+                                    s.countAbove(amount)
+                                            + " accounts have more than "
+                                            + amount)),
+                                    getExecutor());
+                    return CommandResult.success();
+                }, GenericArguments.string(Text.of("amount"))), "above")
+                .child(adminCommand("flush", (src, args) -> {
+                    if (!econService.flushIncrementally(this,
+                            this.config.getFlushBudgetMillis(),
+                            message -> src.sendMessage(Text.of(message)))) {
+                        src.sendMessage(Text.of(TextColors.RED,
+                                "A flush is already running"));
+                        return CommandResult.empty();
+                    }
+                    return CommandResult.success();
+                }), "flush")
+                .child(adminCommand("migrate", (src, args) -> {
+                    String type = args.<String> getOne("store").orElse("");
+                    try {
+                        econService.migrateAccounts(type, getAsyncExecutor(),
+                                message -> getExecutor().execute(
+                                        () -> src.sendMessage(
+                                                Text.of(message))))
+                                .whenCompleteAsync((count, error) -> {
+                                    if (error != null) {
+                                        this.logger.error(
+                                                "couldn't migrate accounts",
+                                                error);
+                                        src.sendMessage(Text.of(
+                                                TextColors.RED,
+                                                "Migration failed, see "
+                                                        + "the log"));
+                                    } else {
+                                        src.sendMessage(Text.of("Copied "
+                                                + count + " accounts to "
+                                                + type + ", switch "
+                                                + "persistence.store and "
+                                                + "restart to use them"));
+                                    }
+                                }, getExecutor());
+                    } catch (IllegalArgumentException e) {
+                        src.sendMessage(
+                                Text.of(TextColors.RED, e.getMessage()));
+                        return CommandResult.empty();
+                    }
+                    return CommandResult.success();
+                }, GenericArguments.string(Text.of("store"))), "migrate")
+                .executor((src, args) -> {
                     String sw = args.<String> getOne("switch").orElse("");
                     Supplier<UniqueAccount> acc = () -> econService
                             .createAccount(((Player) src).getUniqueId()).get();
@@ -124,16 +287,6 @@ public class CSPlugin {
                                 Cause.of(src, this));
                         src.sendMessage(Text.of(src.getName() + " now has "
                                 + a.getBalance(SnowballCurrency.INSTANCE)));
-                    } else if (sw.equals("flush")) {
-                        CSEconomyService.INSTANCE.getAccounts()
-                                .forEach(a -> ((CSAccount) a).save());
-                        CSEconomyService.INSTANCE.getAccounts()
-                                // collect-stream to prevent co-mod exception
-                                .collect(Collectors.toList()).stream()
-                                .map(Account::getIdentifier).forEach(
-                                        CSEconomyService.INSTANCE::removeAccount);
-                        src.sendMessage(Text.of(
-                                "Flushed all accounts. All data will be loaded from disk."));
                     } else {
                         src.sendMessage(
                                 Text.of(TextColors.RED, "Nothin' doin'"));
@@ -141,9 +294,71 @@ public class CSPlugin {
                     }
                     return CommandResult.success();
                 }).arguments(GenericArguments.string(Text.of("switch")))
-                        .build(),
-                "currencysnowmen", "cs");
-        this.logger.info("Loaded " + NAME + " v" + VERSION);
+                .build(), "currencysnowmen", "cs");
+    }
+
+    /**
+     * A subcommand that needs the {@code currencysnowmen.admin.<name>}
+     * permission.
+     */
+    private static CommandSpec adminCommand(String name,
+            CommandExecutor executor, CommandElement... arguments) {
+        return CommandSpec.builder().permission(ADMIN_PERMISSION + name)
+                .arguments(arguments).executor(executor).build();
+    }
+
+    @Listener
+    public void onClientConnectionAuth(ClientConnectionEvent.Auth event) {
+        // warm the account while the player is still logging in
+        CSEconomyService.INSTANCE.preloadAccount(
+                event.getProfile().getUniqueId(), getAsyncExecutor());
+    }
+
+    @Listener
+    public void onGameStartedServer(GameStartedServerEvent event) {
+        try {
+            CSEconomyService.INSTANCE.preloadWarmSet(getWarmSetFile(),
+                    getAsyncExecutor());
+        } catch (IOException e) {
+            this.logger.warn("Couldn't read the list of accounts to preload",
+                    e);
+        }
+        CSEconomyService.INSTANCE.loadLeaderboard(getLeaderboardFile(),
+                getAsyncExecutor());
+    }
+
+    @Listener
+    public void onClientConnectionJoin(ClientConnectionEvent.Join event) {
+        CSEconomyService.INSTANCE.playerJoined(event.getTargetEntity());
+    }
+
+    @Listener
+    public void
+            onClientConnectionDisconnect(ClientConnectionEvent.Disconnect event) {
+        CSEconomyService.INSTANCE
+                .playerLeft(event.getTargetEntity().getUniqueId());
+    }
+
+    @Listener
+    public void onGameStoppingServer(GameStoppingServerEvent event) {
+        this.logger.info("Saving accounts...");
+        if (this.config.getWarmSetSize() > 0) {
+            try {
+                CSEconomyService.INSTANCE.saveWarmSet(getWarmSetFile(),
+                        this.config.getWarmSetSize());
+            } catch (IOException e) {
+                this.logger.warn(
+                        "Couldn't write the list of accounts to preload", e);
+            }
+        }
+        // after the shutdown, which finishes async operations and folds
+        // collected deposits into balances
+        CSEconomyService.INSTANCE.shutdown();
+        try {
+            CSEconomyService.INSTANCE.saveLeaderboard(getLeaderboardFile());
+        } catch (IOException e) {
+            this.logger.warn("Couldn't save the leaderboard", e);
+        }
     }
 
     public Path getConfigDir() {
@@ -154,4 +369,12 @@ public class CSPlugin {
         return this.configDir.resolve("accounts");
     }
 
+    private Path getWarmSetFile() {
+        return this.configDir.resolve("warm-accounts.txt");
+    }
+
+    private Path getLeaderboardFile() {
+        return this.configDir.resolve("leaderboard.dat");
+    }
+
 }
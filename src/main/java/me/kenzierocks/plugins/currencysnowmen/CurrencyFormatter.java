@@ -0,0 +1,161 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.spongepowered.api.text.Text;
+
+/**
+ * Formats amounts of a currency as its symbol followed by the amount. Safe
+ * to use from any thread. Each fraction digit count gets its own formats,
+ * and recently formatted amounts are remembered, so formatting the same
+ * balances over and over, as scoreboards do, doesn't allocate.
+ */
+public final class CurrencyFormatter {
+
+    private static final int MAX_CACHED_DIGITS = 8;
+    private static final int CACHE_SIZE = 256;
+    private static final ConcurrentMap<ExtendedCurrency,
+            CurrencyFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    /**
+     * The shared formatter for {@code currency}, which writes negative
+     * amounts with a minus sign before the symbol.
+     */
+    public static CurrencyFormatter of(ExtendedCurrency currency) {
+        CurrencyFormatter formatter = FORMATTERS.get(currency);
+        if (formatter == null) {
+            formatter = FORMATTERS.computeIfAbsent(currency,
+                    c -> new CurrencyFormatter(c.getSymbol(),
+                            Text.of("-", c.getSymbol()),
+                            withDigits(c.getDefaultFractionDigits())));
+        }
+        return formatter;
+    }
+
+    private static DecimalFormat withDigits(int fractionDigits) {
+        DecimalFormat format = new DecimalFormat();
+        format.setMaximumFractionDigits(fractionDigits);
+        format.setMinimumFractionDigits(fractionDigits);
+        return format;
+    }
+
+    private final Text symbol;
+    private final Text negativeSymbol;
+    private final Formats defaultFormats;
+    private final AtomicReferenceArray<Formats> byDigits =
+            new AtomicReferenceArray<>(MAX_CACHED_DIGITS + 1);
+
+    /**
+     * @param defaultFormat
+     *            The format for {@link #format(BigDecimal)}. It is copied,
+     *            and is only ever given amounts that are not negative.
+     */
+    public CurrencyFormatter(Text symbol, Text negativeSymbol,
+            DecimalFormat defaultFormat) {
+        this.symbol = symbol;
+        this.negativeSymbol = negativeSymbol;
+        this.defaultFormats = new Formats(defaultFormat);
+    }
+
+    public Text format(BigDecimal amount) {
+        return this.defaultFormats.format(amount);
+    }
+
+    /**
+     * Formats {@code amount} with exactly {@code fractionDigits} digits after
+     * the decimal point, and the grouping of the default locale.
+     */
+    public Text format(BigDecimal amount, int fractionDigits) {
+        checkArgument(fractionDigits >= 0, "negative fraction digits");
+        if (fractionDigits > MAX_CACHED_DIGITS) {
+            return build(amount, withDigits(fractionDigits));
+        }
+        Formats formats = this.byDigits.get(fractionDigits);
+        if (formats == null) {
+            this.byDigits.compareAndSet(fractionDigits, null,
+                    new Formats(withDigits(fractionDigits)));
+            formats = this.byDigits.get(fractionDigits);
+        }
+        return formats.format(amount);
+    }
+
+    private Text build(BigDecimal amount, DecimalFormat format) {
+        return (amount.signum() >= 0 ? this.symbol : this.negativeSymbol)
+                .toBuilder().append(Text.of(format.format(amount.abs())))
+                .build();
+    }
+
+    private static final class Formatted {
+
+        private final BigDecimal amount;
+        private final Text text;
+
+        Formatted(BigDecimal amount, Text text) {
+            this.amount = amount;
+            this.text = text;
+        }
+
+    }
+
+    /**
+     * One format, copied for each thread since DecimalFormat isn't safe to
+     * share, and the amounts it formatted last.
+     */
+    private final class Formats {
+
+        private final ThreadLocal<DecimalFormat> format;
+        // entries are immutable, so racing threads only ever lose an entry
+        private final Formatted[] recent = new Formatted[CACHE_SIZE];
+
+        Formats(DecimalFormat prototype) {
+            DecimalFormat copy = (DecimalFormat) prototype.clone();
+            this.format = ThreadLocal
+                    .withInitial(() -> (DecimalFormat) copy.clone());
+        }
+
+        Text format(BigDecimal amount) {
+            // equal amounts have equal scales, so they format the same
+            int hash = amount.hashCode();
+            int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+            Formatted formatted = this.recent[index];
+            if (formatted != null && formatted.amount.equals(amount)) {
+                return formatted.text;
+            }
+            Text text = build(amount, this.format.get());
+            this.recent[index] = new Formatted(amount, text);
+            return text;
+        }
+
+    }
+
+}
@@ -39,4 +39,38 @@ public interface ExtendedCurrency extends Currency {
     
     String getIdentifer();
 
+    /**
+     * If true, balances in this currency are kept in memory as a whole
+     * number of units of {@link #getDefaultFractionDigits()} digits, which
+     * is smaller and faster than a {@link BigDecimal}. Amounts with more
+     * fraction digits than that are still accepted, but are slower to work
+     * with. Balances held this way are returned without trailing fraction
+     * zeros, so a balance of one is {@code 1}, not {@code 1.00}.
+     */
+    default boolean usesFixedPointStorage() {
+        return false;
+    }
+
+    /**
+     * If true, deposits in this currency are collected and added to balances
+     * in bulk every so often, or when the balance is next used, instead of
+     * one by one. Such deposits always succeed, and aren't announced with an
+     * event until they are added, when the event can no longer be cancelled.
+     * Suits frequent small rewards. Only takes
+     * effect with {@linkplain #usesFixedPointStorage() fixed-point storage}
+     * and no maximum balance.
+     */
+    default boolean accumulatesDeposits() {
+        return false;
+    }
+
+    /**
+     * A thread-safe formatter for amounts of this currency. Implementations
+     * can delegate {@link #format(BigDecimal)} and
+     * {@link #format(BigDecimal, int)} to it.
+     */
+    default CurrencyFormatter getFormatter() {
+        return CurrencyFormatter.of(this);
+    }
+
 }
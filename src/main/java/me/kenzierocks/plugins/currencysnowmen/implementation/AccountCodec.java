@@ -0,0 +1,66 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+/**
+ * Converts an account's balance table to and from bytes.
+ */
+interface AccountCodec {
+
+    byte[] encode(Table<Currency, Set<Context>, BigDecimal> data)
+            throws IOException;
+
+    /**
+     * Decodes the remaining bytes of {@code data} into {@code target}.
+     */
+    void decode(ByteBuffer data,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException;
+
+    /**
+     * Decodes only the balances in {@code currency}. Codecs that can skip
+     * the other balances cheaply should override this.
+     */
+    default void decode(ByteBuffer data, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        Table<Currency, Set<Context>, BigDecimal> all =
+                HashBasedTable.create();
+        decode(data, all);
+        target.row(currency).putAll(all.row(currency));
+    }
+
+}
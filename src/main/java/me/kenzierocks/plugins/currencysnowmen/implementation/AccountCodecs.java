@@ -0,0 +1,89 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.Table;
+
+final class AccountCodecs {
+
+    public static AccountCodec byName(String name) {
+        switch (name) {
+            case "json":
+                return JsonAccountCodec.INSTANCE;
+            case "binary":
+                return BinaryAccountCodec.INSTANCE;
+            default:
+                throw new IllegalArgumentException(
+                        "unknown account format " + name);
+        }
+    }
+
+    /**
+     * Picks the codec that wrote {@code data}, based on its header.
+     */
+    public static AccountCodec detect(ByteBuffer data) {
+        return BinaryAccountCodec.isBinary(data) ? BinaryAccountCodec.INSTANCE
+                : JsonAccountCodec.INSTANCE;
+    }
+
+    /**
+     * Decodes data written by any codec.
+     *
+     * @return the codec that wrote the data
+     */
+    public static AccountCodec decode(ByteBuffer data,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        AccountCodec codec = detect(data);
+        codec.decode(data, target);
+        return codec;
+    }
+
+    /**
+     * Decodes the balances in {@code currency}, or all of them if it is
+     * {@code null}, from data written by any codec.
+     */
+    public static void decode(ByteBuffer data, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        if (currency == null) {
+            decode(data, target);
+        } else {
+            detect(data).decode(data, currency, target);
+        }
+    }
+
+    private AccountCodecs() {
+    }
+
+}
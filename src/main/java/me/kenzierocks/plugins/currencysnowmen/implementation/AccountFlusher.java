@@ -0,0 +1,156 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.Task;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Write-behind queue for account saves. Accounts marked dirty are written by
+ * a background task; marking an account several times before the next flush
+ * results in a single write. Journal records are written the same way, one
+ * write and sync per account and flush.
+ */
+public final class AccountFlusher {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Set<CSAccount> dirty = Sets.newConcurrentHashSet();
+    private final Set<CSAccount> journals = Sets.newConcurrentHashSet();
+    private final Object flushLock = new Object();
+    private volatile boolean enabled;
+    private Task task;
+
+    AccountFlusher() {
+    }
+
+    /**
+     * Starts writing dirty accounts in the background. Changes are written
+     * at most {@code maxStalenessMillis} after they are made, plus the time
+     * taken by the write itself.
+     */
+    public synchronized void start(Object plugin, long maxStalenessMillis) {
+        if (this.task != null) {
+            this.task.cancel();
+        }
+        this.task = Sponge.getScheduler().createTaskBuilder().async()
+                .name("Currency☃ account flusher")
+                .interval(maxStalenessMillis, TimeUnit.MILLISECONDS)
+                .execute(this::flush).submit(plugin);
+        this.enabled = true;
+    }
+
+    /**
+     * Stops the background task and writes everything that is still dirty
+     * on the calling thread. Further changes are saved immediately.
+     */
+    public synchronized void stop() {
+        this.enabled = false;
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+        flush();
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public int getPendingCount() {
+        return this.dirty.size();
+    }
+
+    void markDirty(CSAccount account) {
+        if (this.enabled) {
+            this.dirty.add(account);
+        } else {
+            account.save();
+        }
+    }
+
+    /**
+     * Schedules the queued journal records of {@code account} to be written.
+     */
+    void markJournal(CSAccount account) {
+        if (this.enabled) {
+            this.journals.add(account);
+        } else {
+            account.flushJournal();
+        }
+    }
+
+    /**
+     * Writes {@code account} now if it is waiting to be written.
+     */
+    void writeBack(CSAccount account) {
+        if (this.journals.remove(account)) {
+            account.flushJournal();
+        }
+        if (this.dirty.remove(account)) {
+            account.save();
+        }
+    }
+
+    /**
+     * Writes the queued journal records, then every dirty account, a batch
+     * at a time so the store can share its disk syncs between them. Flushes
+     * never overlap.
+     */
+    public void flush() {
+        synchronized (this.flushLock) {
+            for (Iterator<CSAccount> iter = this.journals.iterator(); iter
+                    .hasNext();) {
+                CSAccount account = iter.next();
+                iter.remove();
+                account.flushJournal();
+            }
+            List<CSAccount> batch = new ArrayList<>(BATCH_SIZE);
+            for (Iterator<CSAccount> iter = this.dirty.iterator(); iter
+                    .hasNext();) {
+                CSAccount account = iter.next();
+                // remove first, a change made during the save re-marks it
+                iter.remove();
+                batch.add(account);
+                if (batch.size() == BATCH_SIZE) {
+                    CSAccount.saveAll(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                CSAccount.saveAll(batch);
+            }
+        }
+    }
+
+}
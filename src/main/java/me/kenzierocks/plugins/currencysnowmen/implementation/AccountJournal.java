@@ -0,0 +1,375 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Append-only log of balance changes made to one account since its last
+ * snapshot. Each record holds the new value of a single balance, so
+ * replaying records over the snapshot in order restores the account.
+ *
+ * <p>
+ * Records are framed as {@code length, payload, crc32}. A record that was
+ * only partly written when the server died fails its checksum; replay stops
+ * there and the tail is cut off, so the account comes back as of its last
+ * complete record.
+ * </p>
+ *
+ * <p>
+ * {@link #append} only queues a record, so it is cheap enough to call while
+ * the account is locked. {@link #flush}, normally called by the write-behind
+ * flusher, writes everything queued so far through one channel that stays
+ * open between flushes, and syncs it if {@code persistence.fsync} is on.
+ * </p>
+ *
+ * <p>
+ * Compaction moves the live log aside, writes a fresh snapshot and then
+ * deletes the old log. Taking the snapshot only swaps the queue of pending
+ * records, so the account is never locked for disk I/O; the records the
+ * snapshot covers are written to the old log before it is moved. Records
+ * made while the snapshot is being saved go to the new live log, and a log
+ * left behind by an interrupted compaction is replayed before the live one.
+ * </p>
+ */
+final class AccountJournal {
+
+    private static final String LIVE_SUFFIX = ".log";
+    private static final String COMPACTING_SUFFIX = ".compacting";
+
+    static Path getJournalDir() {
+        return CSPlugin.getInstance().getAccountSerializationDir()
+                .resolve("journal");
+    }
+
+    private final String accountId;
+    private final Path live;
+    private final Path compacting;
+    private final boolean durable;
+    private int records;
+    // encoded records not written yet, in the order they were appended
+    private volatile Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+    // records covered by the snapshot being saved, for the old log
+    private volatile Queue<ByteBuffer> covered;
+    private final Lock writeLock = new ReentrantLock();
+    private FileChannel channel;
+
+    AccountJournal(String accountId) {
+        this.accountId = accountId;
+        this.durable = CSPlugin.getInstance().getConfig().isFsync();
+        Path dir = getJournalDir();
+        this.live = dir.resolve(accountId + LIVE_SUFFIX);
+        this.compacting = dir.resolve(accountId + COMPACTING_SUFFIX);
+    }
+
+    /**
+     * The number of records written since the last compaction.
+     */
+    int getRecordCount() {
+        return this.records;
+    }
+
+    /**
+     * Queues a record. Must be called while the account is locked, so that
+     * records are queued in the order the balances changed.
+     */
+    void append(Currency currency, Set<Context> contexts, BigDecimal amount)
+            throws IOException {
+        byte[] payload = encode(currency, contexts, amount);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(payload.length + 8);
+        record.putInt(payload.length).put(payload)
+                .putInt((int) crc.getValue());
+        record.flip();
+        this.pending.add(record);
+        this.records++;
+    }
+
+    /**
+     * Writes every queued record, and syncs them to disk if fsync is on.
+     * When this returns, all records appended before the call are written.
+     */
+    void flush() throws IOException {
+        this.writeLock.lock();
+        try {
+            // read before the covered records, see beginCompaction
+            Queue<ByteBuffer> pending = this.pending;
+            moveCovered();
+            write(pending);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    private void write(Queue<ByteBuffer> records) throws IOException {
+        ByteBuffer record = records.poll();
+        if (record == null) {
+            return;
+        }
+        if (this.channel == null) {
+            Files.createDirectories(this.live.getParent());
+            this.channel = FileChannel.open(this.live,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        long start = this.channel.size();
+        try {
+            do {
+                while (record.hasRemaining()) {
+                    this.channel.write(record);
+                }
+                record = records.poll();
+            } while (record != null);
+            if (this.durable) {
+                this.channel.force(false);
+            }
+        } catch (IOException e) {
+            // don't leave a torn record in front of later ones
+            try {
+                this.channel.truncate(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            closeChannel();
+            throw e;
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        FileChannel channel = this.channel;
+        this.channel = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes the open log file. A later flush opens it again.
+     */
+    void close() throws IOException {
+        this.writeLock.lock();
+        try {
+            closeChannel();
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Applies every complete record on disk to {@code target}, oldest first.
+     */
+    void replay(Table<Currency, Set<Context>, BigDecimal> target)
+            throws IOException {
+        this.records = replay(this.compacting, target, true)
+                + replay(this.live, target, true);
+    }
+
+    /**
+     * Like {@link #replay}, but never changes the files, so it is safe to
+     * call while the account is loaded elsewhere.
+     */
+    void read(Table<Currency, Set<Context>, BigDecimal> target)
+            throws IOException {
+        replay(this.compacting, target, false);
+        replay(this.live, target, false);
+    }
+
+    private int replay(Path file,
+            Table<Currency, Set<Context>, BigDecimal> target, boolean repair)
+                    throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+        int count = 0;
+        int good = 0;
+        while (data.remaining() >= 4) {
+            int length = data.getInt();
+            if (length < 0 || data.remaining() < length + 4) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            data.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (data.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            decode(payload, target);
+            count++;
+            good = data.position();
+        }
+        if (repair && good < data.limit()) {
+            CSPlugin.getInstance().getLogger()
+                    .warn("Discarding " + (data.limit() - good)
+                            + " bytes of incomplete journal data for "
+                            + this.accountId);
+            try (
+                    FileChannel channel = FileChannel.open(file,
+                            StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets the records queued so far aside as covered by a snapshot. Must
+     * be called while the account is locked, together with taking the
+     * snapshot; does no I/O. {@link #rotate} then moves them out of the way.
+     */
+    void beginCompaction() {
+        // covered first, so a flush that sees the new queue rotates first
+        this.covered = this.pending;
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.records = 0;
+    }
+
+    /**
+     * Writes the records covered by the snapshot to the live log and moves
+     * it aside. Call after {@link #beginCompaction} without holding the
+     * account lock, before the snapshot is saved.
+     */
+    void rotate() throws IOException {
+        this.writeLock.lock();
+        try {
+            moveCovered();
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    private void moveCovered() throws IOException {
+        Queue<ByteBuffer> covered = this.covered;
+        if (covered == null) {
+            return;
+        }
+        try {
+            write(covered);
+            closeChannel();
+            moveLiveLog();
+        } finally {
+            // the snapshot holds these records either way
+            this.covered = null;
+        }
+    }
+
+    private void moveLiveLog() throws IOException {
+        if (!Files.exists(this.live)) {
+            return;
+        }
+        if (Files.exists(this.compacting)) {
+            // an earlier compaction never finished, keep its records first
+            try (
+                    OutputStream out = Files.newOutputStream(this.compacting,
+                            StandardOpenOption.APPEND)) {
+                Files.copy(this.live, out);
+            }
+            Files.delete(this.live);
+        } else {
+            Files.move(this.live, this.compacting,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Drops the records covered by a snapshot that has been written.
+     */
+    void finishCompaction() throws IOException {
+        Files.deleteIfExists(this.compacting);
+    }
+
+    private static byte[] encode(Currency currency, Set<Context> contexts,
+            BigDecimal amount) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(CSEconomyService.getCurrencyId(currency));
+        out.writeShort(contexts.size());
+        for (Context context : contexts) {
+            out.writeUTF(context.getKey());
+            out.writeUTF(context.getValue());
+        }
+        byte[] unscaled = amount.unscaledValue().toByteArray();
+        out.writeInt(amount.scale());
+        out.writeShort(unscaled.length);
+        out.write(unscaled);
+        return bytes.toByteArray();
+    }
+
+    private void decode(byte[] payload,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        DataInputStream in =
+                new DataInputStream(new ByteArrayInputStream(payload));
+        String currencyId = in.readUTF();
+        int contextCount = in.readUnsignedShort();
+        ImmutableSet.Builder<Context> contexts = ImmutableSet.builder();
+        for (int i = 0; i < contextCount; i++) {
+            contexts.add(new Context(in.readUTF(), in.readUTF()));
+        }
+        int scale = in.readInt();
+        byte[] unscaled = new byte[in.readUnsignedShort()];
+        in.readFully(unscaled);
+        Currency currency =
+                CSEconomyService.INSTANCE.getCurrencyByIdentifier(currencyId);
+        if (currency == null) {
+            CSPlugin.getInstance().getLogger()
+                    .warn("Skipping journal record for unknown currency "
+                            + currencyId + " in " + this.accountId);
+            return;
+        }
+        target.put(currency, ContextSet.of(contexts.build()),
+                new BigDecimal(new BigInteger(unscaled), scale));
+    }
+
+}
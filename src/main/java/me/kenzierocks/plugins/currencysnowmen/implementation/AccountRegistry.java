@@ -0,0 +1,329 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Thread-safe map of loaded accounts. Loads run on the thread that asked for
+ * the account, outside of any lock, so different accounts load in parallel.
+ * Threads asking for an account that is already being loaded wait for that
+ * load instead of starting their own.
+ *
+ * <p>
+ * The registry is bounded: {@link #evict} drops idle accounts, and the
+ * least recently used ones when there are too many. Evicted accounts are
+ * written back if dirty and reloaded on their next lookup. An evicted
+ * account that some plugin still holds on to is only weakly referenced; if
+ * it is asked for again before it is collected, that same instance is
+ * reused, so there is never more than one live copy of an account.
+ * </p>
+ *
+ * <p>
+ * The ids of the most recently evicted accounts are remembered so lookups
+ * know which ones to reload. Once some have been forgotten, a lookup of an
+ * unknown id asks the store whether the account was saved, and remembers
+ * the ids it didn't have so that asking again is free.
+ * </p>
+ */
+final class AccountRegistry {
+
+    private static final class Candidate {
+
+        private final String id;
+        private final CompletableFuture<CSAccount> future;
+        private final CSAccount account;
+        private final boolean pinned;
+        private final long lastAccess;
+
+        private Candidate(Entry<String, CompletableFuture<CSAccount>> entry,
+                boolean pinned) {
+            this.id = entry.getKey();
+            this.future = entry.getValue();
+            this.account = this.future.join();
+            this.pinned = pinned;
+            this.lastAccess = this.account.getLastAccess();
+        }
+
+    }
+
+    private static final Comparator<Candidate> EVICTION_ORDER = Comparator
+            .comparing((Candidate c) -> c.pinned)
+            .thenComparingLong(c -> c.lastAccess);
+    private static final int MAX_EVICTED = 1 << 16;
+
+    private final ConcurrentMap<String, CompletableFuture<CSAccount>> accounts =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CSAccount> retired =
+            new MapMaker().weakValues().makeMap();
+    // evicted ids, mapped to whether they were unique accounts
+    private final Cache<String, Boolean> evicted;
+    private volatile boolean forgotten;
+    // ids the store was asked about and didn't have
+    private final Cache<String, Boolean> absent =
+            CacheBuilder.newBuilder().maximumSize(MAX_EVICTED).build();
+    // bumped by every eviction, to tell if one raced with a store lookup
+    private final AtomicLong evictionStamp = new AtomicLong();
+    private final BiFunction<String, Boolean, CSAccount> reloader;
+    private final Predicate<String> saved;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param reloader - Creates an evicted account again, given its id and
+     *        whether it was a unique account
+     * @param saved - Whether the store has an account with the given id
+     */
+    AccountRegistry(BiFunction<String, Boolean, CSAccount> reloader,
+            Predicate<String> saved) {
+        this.reloader = reloader;
+        this.saved = saved;
+        this.evicted = CacheBuilder.newBuilder().maximumSize(MAX_EVICTED)
+                .<String, Boolean> removalListener(n -> {
+                    if (n.wasEvicted()) {
+                        this.forgotten = true;
+                    }
+                }).build();
+    }
+
+    /**
+     * Gets the account with the given id, waiting for it if it is still
+     * loading. Only loads accounts that were evicted.
+     */
+    Optional<CSAccount> get(String id) {
+        CompletableFuture<CSAccount> future = this.accounts.get(id);
+        if (future == null) {
+            Boolean evicted = this.evicted.getIfPresent(id);
+            if (evicted == null && !isSaved(id)) {
+                return Optional.empty();
+            }
+            boolean unique = evicted == null ? isUuid(id) : evicted;
+            return Optional
+                    .of(getOrLoad(id, k -> this.reloader.apply(k, unique)));
+        }
+        CSAccount account;
+        try {
+            account = future.join();
+        } catch (CompletionException e) {
+            return Optional.empty();
+        }
+        if (!touchListed(id, future, account)) {
+            // evicted meanwhile, so reload it
+            return get(id);
+        }
+        this.hits.increment();
+        return Optional.of(account);
+    }
+
+    private boolean touchListed(String id,
+            CompletableFuture<CSAccount> future, CSAccount account) {
+        return account.touchIf(() -> this.accounts.get(id) == future);
+    }
+
+    /**
+     * Whether the store may have an account that isn't remembered as
+     * evicted.
+     */
+    private boolean isSaved(String id) {
+        if (!this.forgotten || this.absent.getIfPresent(id) != null) {
+            return false;
+        }
+        long stamp = this.evictionStamp.get();
+        if (this.saved.test(id)) {
+            return true;
+        }
+        this.absent.put(id, Boolean.TRUE);
+        // an eviction may have saved it since, and missed the entry
+        if (this.evictionStamp.get() != stamp) {
+            this.absent.invalidate(id);
+        }
+        return false;
+    }
+
+    // unique accounts are saved under their player's UUID
+    private static boolean isUuid(String id) {
+        try {
+            return UUID.fromString(id).toString().equals(id);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the account with the given id, loading it with {@code loader} if
+     * nobody has yet.
+     */
+    CSAccount getOrLoad(String id, Function<String, CSAccount> loader) {
+        for (;;) {
+            CompletableFuture<CSAccount> future = this.accounts.get(id);
+            if (future == null) {
+                CompletableFuture<CSAccount> created =
+                        new CompletableFuture<>();
+                future = this.accounts.putIfAbsent(id, created);
+                if (future == null) {
+                    return load(id, created, loader);
+                }
+            }
+            CSAccount account = future.join();
+            if (touchListed(id, future, account)) {
+                this.hits.increment();
+                return account;
+            }
+        }
+    }
+
+    private CSAccount load(String id, CompletableFuture<CSAccount> future,
+            Function<String, CSAccount> loader) {
+        CSAccount account = this.retired.remove(id);
+        if (account != null) {
+            this.hits.increment();
+        } else {
+            this.misses.increment();
+            try {
+                account = loader.apply(id);
+            } catch (RuntimeException | Error e) {
+                // let the next caller try again
+                this.accounts.remove(id, future);
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+        this.evicted.invalidate(id);
+        this.absent.invalidate(id);
+        account.touch();
+        future.complete(account);
+        return account;
+    }
+
+    /**
+     * Every account that has finished loading. The stream is weakly
+     * consistent: accounts added or removed while it is used may or may not
+     * be seen.
+     */
+    Stream<CSAccount> stream() {
+        return this.accounts.values().stream()
+                .filter(f -> f.isDone() && !f.isCompletedExceptionally())
+                .map(CompletableFuture::join);
+    }
+
+    /**
+     * Evicts the account with the given id, if it is loaded.
+     */
+    void remove(String id, AccountFlusher flusher) {
+        CompletableFuture<CSAccount> future = this.accounts.get(id);
+        if (future != null && future.isDone()
+                && !future.isCompletedExceptionally()) {
+            evict(id, future, future.join(), lastAccess -> true, flusher);
+        }
+    }
+
+    /**
+     * Evicts every account idle for longer than {@code idleNanos}, then the
+     * least recently used ones until at most {@code maxSize} remain.
+     * Accounts matching {@code pinned} are only evicted to get under
+     * {@code maxSize}, and only after all others.
+     */
+    void evict(int maxSize, long idleNanos, Predicate<CSAccount> pinned,
+            AccountFlusher flusher) {
+        List<Candidate> candidates = new ArrayList<>(this.accounts.size());
+        for (Entry<String, CompletableFuture<CSAccount>> entry : this.accounts
+                .entrySet()) {
+            CompletableFuture<CSAccount> future = entry.getValue();
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                candidates.add(
+                        new Candidate(entry, pinned.test(future.join())));
+            }
+        }
+        candidates.sort(EVICTION_ORDER);
+        long now = System.nanoTime();
+        int size = this.accounts.size();
+        for (Candidate candidate : candidates) {
+            boolean idle = !candidate.pinned
+                    && now - candidate.lastAccess > idleNanos;
+            if ((idle || size > maxSize) && evict(candidate.id,
+                    candidate.future, candidate.account,
+                    lastAccess -> lastAccess == candidate.lastAccess,
+                    flusher)) {
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Evicts {@code account} if {@code unused} accepts its last access. The
+     * check, the save and the removal happen under the account's locks, so
+     * a lookup can't slip in between.
+     */
+    private boolean evict(String id, CompletableFuture<CSAccount> future,
+            CSAccount account, LongPredicate unused, AccountFlusher flusher) {
+        boolean removed = account.evictIf(unused, () -> {
+            flusher.writeBack(account);
+            // journaled changes too, so the store knows about the account
+            account.save();
+            account.closeJournal();
+            this.evictionStamp.incrementAndGet();
+            this.absent.invalidate(id);
+            // publish the instance before unlisting it so lookups find it
+            this.retired.put(id, account);
+            this.evicted.put(id, account instanceof CSUniqueAccount);
+            return this.accounts.remove(id, future);
+        });
+        if (removed) {
+            this.evictions.increment();
+        }
+        return removed;
+    }
+
+    int size() {
+        return this.accounts.size();
+    }
+
+    CacheStats getStats() {
+        return new CacheStats(this.accounts.size(), this.retired.size(),
+                this.hits.sum(), this.misses.sum(), this.evictions.sum());
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.Table;
+
+/**
+ * Where account snapshots live. Implementations must allow loads and saves
+ * of different accounts from different threads; saves of one account never
+ * overlap.
+ *
+ * <p>
+ * Plugins can supply their own store with
+ * {@link CSEconomyService#setStore(AccountStore)}. Data is handed over as
+ * tables of currency, contexts and balance; codecs for turning these into
+ * bytes are up to the store.
+ * </p>
+ */
+public interface AccountStore extends Closeable {
+
+    /**
+     * Copies the saved balances of {@code id} into {@code target}. Does
+     * nothing if the account has never been saved.
+     */
+    void load(String id, Table<Currency, Set<Context>, BigDecimal> target)
+            throws IOException;
+
+    /**
+     * Like {@link #load}, but never writes, so it may be called for an
+     * account that is loaded and being saved elsewhere.
+     *
+     * @param currency - The only currency to read, or {@code null} for all
+     */
+    void read(String id, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException;
+
+    /**
+     * Replaces the saved balances of {@code id}. Once this returns, the
+     * data should survive a crash.
+     */
+    void save(String id, Table<Currency, Set<Context>, BigDecimal> data)
+            throws IOException;
+
+    /**
+     * Saves several accounts. Stores that can write a batch faster than
+     * one account at a time should override this.
+     */
+    default void saveAll(
+            Map<String, Table<Currency, Set<Context>, BigDecimal>> accounts)
+                    throws IOException {
+        for (Map.Entry<String, Table<Currency, Set<Context>,
+                BigDecimal>> account : accounts.entrySet()) {
+            save(account.getKey(), account.getValue());
+        }
+    }
+
+    /**
+     * The ids of every saved account.
+     */
+    Set<String> listIds() throws IOException;
+
+}
@@ -0,0 +1,192 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.account.Account;
+import org.spongepowered.api.service.economy.account.UniqueAccount;
+import org.spongepowered.api.service.economy.account.VirtualAccount;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+import org.spongepowered.api.service.economy.transaction.TransferResult;
+
+import me.kenzierocks.plugins.currencysnowmen.CSConfig;
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Non-blocking versions of the economy operations, for callers such as web
+ * shops or chat bridges. The work runs on a small pool of I/O threads, and
+ * each future completes on the executor passed with the call, which may be
+ * the main thread's ({@link CSPlugin#getExecutor()}).
+ *
+ * <p>
+ * The pool only queues a limited amount of work. Calls made while it is
+ * full fail straight away with a {@link RejectedExecutionException} instead
+ * of piling up, so callers should retry later or drop the request.
+ * </p>
+ */
+public final class AsyncEconomy {
+
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final CSEconomyService service;
+    private ThreadPoolExecutor pool;
+
+    AsyncEconomy(CSEconomyService service) {
+        this.service = service;
+    }
+
+    /**
+     * Like {@link CSEconomyService#createAccount(UUID)}, but the player isn't
+     * looked up, as that is only safe on the main thread. The display name
+     * is filled in when they join.
+     */
+    public CompletableFuture<UniqueAccount> getOrCreateAccount(UUID uuid,
+            Executor completeOn) {
+        return submit(() -> this.service.loadAccount(uuid), completeOn);
+    }
+
+    public CompletableFuture<VirtualAccount>
+            getOrCreateVirtualAccount(String identifier, Executor completeOn) {
+        return submit(
+                () -> this.service.createVirtualAccount(identifier).get(),
+                completeOn);
+    }
+
+    public CompletableFuture<BigDecimal> getBalance(Account account,
+            Currency currency, Set<Context> contexts, Executor completeOn) {
+        return submit(() -> account.getBalance(currency, contexts),
+                completeOn);
+    }
+
+    public CompletableFuture<Map<Currency, BigDecimal>> getBalances(
+            Account account, Set<Context> contexts, Executor completeOn) {
+        return submit(() -> account.getBalances(contexts), completeOn);
+    }
+
+    public CompletableFuture<TransactionResult> deposit(Account account,
+            Currency currency, BigDecimal amount, Cause cause,
+            Set<Context> contexts, Executor completeOn) {
+        return submit(
+                () -> account.deposit(currency, amount, cause, contexts),
+                completeOn);
+    }
+
+    public CompletableFuture<TransactionResult> withdraw(Account account,
+            Currency currency, BigDecimal amount, Cause cause,
+            Set<Context> contexts, Executor completeOn) {
+        return submit(
+                () -> account.withdraw(currency, amount, cause, contexts),
+                completeOn);
+    }
+
+    public CompletableFuture<TransferResult> transfer(Account from,
+            Account to, Currency currency, BigDecimal amount, Cause cause,
+            Set<Context> contexts, Executor completeOn) {
+        return submit(
+                () -> from.transfer(to, currency, amount, cause, contexts),
+                completeOn);
+    }
+
+    /**
+     * The number of operations waiting for an I/O thread.
+     */
+    public synchronized int getQueuedCount() {
+        return this.pool == null ? 0 : this.pool.getQueue().size();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task,
+            Executor completeOn) {
+        CompletableFuture<T> work;
+        try {
+            work = CompletableFuture.supplyAsync(task, getPool());
+        } catch (RejectedExecutionException e) {
+            work = new CompletableFuture<>();
+            work.completeExceptionally(e);
+        }
+        // hands the outcome, and so the caller's callbacks, to completeOn
+        return work.whenCompleteAsync((result, error) -> {
+        }, completeOn);
+    }
+
+    private synchronized ThreadPoolExecutor getPool() {
+        if (this.pool == null) {
+            CSConfig config = CSPlugin.getInstance().getConfig();
+            AtomicInteger count = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(config.getAsyncThreads(),
+                    config.getAsyncThreads(), 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(config.getAsyncQueueSize()),
+                    r -> {
+                        Thread thread = new Thread(r,
+                                "Currency☃ I/O #" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.pool.allowCoreThreadTimeOut(true);
+        }
+        return this.pool;
+    }
+
+    /**
+     * Stops taking new work and waits a while for queued work to finish, so
+     * that it is saved with everything else.
+     */
+    void shutdown() {
+        ThreadPoolExecutor pool;
+        synchronized (this) {
+            pool = this.pool;
+            this.pool = null;
+        }
+        if (pool == null) {
+            return;
+        }
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(STOP_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS)) {
+                CSPlugin.getInstance().getLogger().warn(
+                        pool.getQueue().size() + pool.getActiveCount()
+                                + " async economy operations didn't finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
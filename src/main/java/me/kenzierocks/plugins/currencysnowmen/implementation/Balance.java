@@ -0,0 +1,84 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.math.BigDecimal;
+
+/**
+ * One balance of an account, guarded by that account's lock. Balances in
+ * fixed-point currencies are kept as a number of units and changed in place;
+ * anything else, including fixed-point amounts with too many digits, is kept
+ * as a {@link BigDecimal}.
+ */
+abstract class Balance {
+
+    static Balance of(FixedPoint fixedPoint, BigDecimal value) {
+        if (fixedPoint != null) {
+            long units = fixedPoint.toUnits(value);
+            if (units != FixedPoint.UNREPRESENTABLE) {
+                return new Units(fixedPoint, units);
+            }
+        }
+        return new Decimal(value);
+    }
+
+    private Balance() {
+    }
+
+    abstract BigDecimal get();
+
+    static final class Units extends Balance {
+
+        private final FixedPoint fixedPoint;
+        long units;
+
+        Units(FixedPoint fixedPoint, long units) {
+            this.fixedPoint = fixedPoint;
+            this.units = units;
+        }
+
+        @Override
+        BigDecimal get() {
+            return this.fixedPoint.toDecimal(this.units);
+        }
+
+    }
+
+    static final class Decimal extends Balance {
+
+        private final BigDecimal value;
+
+        Decimal(BigDecimal value) {
+            this.value = value;
+        }
+
+        @Override
+        BigDecimal get() {
+            return this.value;
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Works out a {@link BalanceSummary} by splitting the saved accounts into
+ * chunks that are read in parallel on a fork/join pool. Only the balances in
+ * the wanted currency are decoded, and nothing is added to the account
+ * cache. Loaded accounts are read from memory instead, since their latest
+ * changes may not be saved yet.
+ */
+final class BalanceAggregation
+        extends RecursiveTask<BalanceAggregation.Partial> {
+
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF_SIZE = 64;
+
+    /**
+     * Must run on a {@link java.util.concurrent.ForkJoinPool} thread to be
+     * parallel.
+     */
+    static BalanceSummary summarize(AccountStore store,
+            Stream<CSAccount> loadedAccounts, Currency currency,
+            ContextSet contexts) throws IOException {
+        Map<String, CSAccount> loaded = loadedAccounts.collect(Collectors
+                .toMap(CSAccount::getIdentifier, Function.identity()));
+        Set<String> ids = new HashSet<>(store.listIds());
+        ids.addAll(loaded.keySet());
+        Partial result = new BalanceAggregation(store, loaded, currency,
+                contexts, ids.toArray(new String[ids.size()]), 0, ids.size())
+                        .invoke();
+        double[] values = Arrays.copyOf(result.values, result.count);
+        Arrays.parallelSort(values);
+        return new BalanceSummary(result.sum, result.min, result.max, values);
+    }
+
+    static final class Partial {
+
+        private int count;
+        private BigDecimal sum = BigDecimal.ZERO;
+        private BigDecimal min;
+        private BigDecimal max;
+        private double[] values = new double[LEAF_SIZE];
+
+        private void add(BigDecimal balance) {
+            if (this.count == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.count * 2);
+            }
+            this.values[this.count++] = balance.doubleValue();
+            this.sum = this.sum.add(balance);
+            this.min = this.min == null ? balance : this.min.min(balance);
+            this.max = this.max == null ? balance : this.max.max(balance);
+        }
+
+        private Partial merge(Partial other) {
+            if (other.count > 0) {
+                if (this.count + other.count > this.values.length) {
+                    this.values = Arrays.copyOf(this.values,
+                            this.count + other.count);
+                }
+                System.arraycopy(other.values, 0, this.values, this.count,
+                        other.count);
+                this.count += other.count;
+                this.sum = this.sum.add(other.sum);
+                this.min = this.min == null ? other.min
+                        : this.min.min(other.min);
+                this.max = this.max == null ? other.max
+                        : this.max.max(other.max);
+            }
+            return this;
+        }
+
+    }
+
+    private final AccountStore store;
+    private final Map<String, CSAccount> loaded;
+    private final Currency currency;
+    private final ContextSet contexts;
+    private final String[] ids;
+    private final int from;
+    private final int to;
+
+    private BalanceAggregation(AccountStore store,
+            Map<String, CSAccount> loaded, Currency currency,
+            ContextSet contexts, String[] ids, int from, int to) {
+        this.store = store;
+        this.loaded = loaded;
+        this.currency = currency;
+        this.contexts = contexts;
+        this.ids = ids;
+        this.from = from;
+        this.to = to;
+    }
+
+    private BalanceAggregation slice(int from, int to) {
+        return new BalanceAggregation(this.store, this.loaded, this.currency,
+                this.contexts, this.ids, from, to);
+    }
+
+    @Override
+    protected Partial compute() {
+        if (this.to - this.from <= LEAF_SIZE) {
+            Partial partial = new Partial();
+            for (int i = this.from; i < this.to; i++) {
+                BigDecimal balance = balanceOf(this.ids[i]);
+                if (balance != null) {
+                    partial.add(balance);
+                }
+            }
+            return partial;
+        }
+        int middle = (this.from + this.to) >>> 1;
+        BalanceAggregation left = slice(this.from, middle);
+        left.fork();
+        Partial right = slice(middle, this.to).compute();
+        return left.join().merge(right);
+    }
+
+    private BigDecimal balanceOf(String id) {
+        CSAccount account = this.loaded.get(id);
+        if (account != null) {
+            return account.findBalance(this.currency, this.contexts);
+        }
+        Table<Currency, Set<Context>, BigDecimal> data =
+                HashBasedTable.create();
+        try {
+            this.store.read(id, this.currency, data);
+            new AccountJournal(id).read(data);
+        } catch (IOException e) {
+            CSPlugin.getInstance().getLogger()
+                    .warn("couldn't read acc " + id + " for a summary", e);
+            return null;
+        }
+        return data.get(this.currency, this.contexts);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Statistics about the balances of one currency, in one set of contexts,
+ * across every account. Accounts that never held the currency there are
+ * not counted.
+ *
+ * <p>
+ * The sum, minimum and maximum are exact. Percentiles, histograms and
+ * thresholds work on the balances rounded to {@code double}s, so they are
+ * approximate: most decimal amounts, like 0.1, have no exact
+ * {@code double}, and only about 15 significant digits are kept. Balances
+ * that differ only beyond that may count as equal.
+ * </p>
+ */
+public final class BalanceSummary {
+
+    private final BigDecimal sum;
+    private final BigDecimal min;
+    private final BigDecimal max;
+    private final double[] sorted;
+
+    BalanceSummary(BigDecimal sum, BigDecimal min, BigDecimal max,
+            double[] sorted) {
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.sorted = sorted;
+    }
+
+    public long getCount() {
+        return this.sorted.length;
+    }
+
+    public BigDecimal getSum() {
+        return this.sum;
+    }
+
+    public Optional<BigDecimal> getMin() {
+        return Optional.ofNullable(this.min);
+    }
+
+    public Optional<BigDecimal> getMax() {
+        return Optional.ofNullable(this.max);
+    }
+
+    public Optional<BigDecimal> getMean() {
+        return this.sorted.length == 0 ? Optional.empty()
+                : Optional.of(this.sum.divide(
+                        BigDecimal.valueOf(this.sorted.length),
+                        MathContext.DECIMAL64));
+    }
+
+    /**
+     * The balance, rounded to a {@code double}, that a fraction {@code q} of
+     * the accounts are at or below, or {@link Double#NaN} if there are no
+     * balances.
+     */
+    public double getPercentile(double q) {
+        checkArgument(q >= 0 && q <= 1, "q must be between 0 and 1");
+        if (this.sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(q * this.sorted.length) - 1;
+        return this.sorted[Math.max(0, index)];
+    }
+
+    /**
+     * The number of accounts with more than {@code amount}.
+     */
+    public long countAbove(BigDecimal amount) {
+        double threshold = amount.doubleValue();
+        int low = 0;
+        int high = this.sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.sorted[mid] > threshold) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return this.sorted.length - low;
+    }
+
+    /**
+     * Counts the balances in {@code buckets} equal ranges between the
+     * minimum and the maximum.
+     */
+    public long[] getHistogram(int buckets) {
+        checkArgument(buckets > 0, "need at least one bucket");
+        long[] counts = new long[buckets];
+        if (this.sorted.length == 0) {
+            return counts;
+        }
+        double low = this.sorted[0];
+        double width = (this.sorted[this.sorted.length - 1] - low) / buckets;
+        for (double value : this.sorted) {
+            int bucket = width == 0 ? 0 : (int) ((value - low) / width);
+            counts[Math.min(bucket, buckets - 1)]++;
+        }
+        return counts;
+    }
+
+    /**
+     * The lower bound of each bucket of {@link #getHistogram}.
+     */
+    public double[] getHistogramBounds(int buckets) {
+        checkArgument(buckets > 0, "need at least one bucket");
+        double[] bounds = new double[buckets];
+        if (this.sorted.length == 0) {
+            return bounds;
+        }
+        double low = this.sorted[0];
+        double width = (this.sorted[this.sorted.length - 1] - low) / buckets;
+        Arrays.setAll(bounds, i -> low + i * width);
+        return bounds;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.math.BigDecimal;
+import java.util.Set;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.account.Account;
+import org.spongepowered.api.service.economy.transaction.TransactionType;
+import org.spongepowered.api.service.economy.transaction.TransactionTypes;
+
+/**
+ * One transaction in a batch passed to
+ * {@link CSEconomyService#transact(java.util.List,
+ * org.spongepowered.api.event.cause.Cause)}.
+ */
+public final class BatchOperation {
+
+    public static BatchOperation deposit(Account account, Currency currency,
+            BigDecimal amount, Set<Context> contexts) {
+        return new BatchOperation(TransactionTypes.DEPOSIT, account, null,
+                currency, amount, amount, contexts);
+    }
+
+    public static BatchOperation withdraw(Account account, Currency currency,
+            BigDecimal amount, Set<Context> contexts) {
+        return new BatchOperation(TransactionTypes.WITHDRAW, account, null,
+                currency, amount, amount.negate(), contexts);
+    }
+
+    public static BatchOperation transfer(Account from, Account to,
+            Currency currency, BigDecimal amount, Set<Context> contexts) {
+        return new BatchOperation(TransactionTypes.TRANSFER, from,
+                checkNotNull(to, "to"), currency, amount, amount.negate(),
+                contexts);
+    }
+
+    private final TransactionType type;
+    private final Account account;
+    private final Account target;
+    private final Currency currency;
+    private final BigDecimal amount;
+    private final BigDecimal delta;
+    private final Set<Context> contexts;
+
+    private BatchOperation(TransactionType type, Account account,
+            Account target, Currency currency, BigDecimal amount,
+            BigDecimal delta, Set<Context> contexts) {
+        this.type = type;
+        this.account = checkNotNull(account, "account");
+        this.target = target;
+        this.currency = checkNotNull(currency, "currency");
+        this.amount = checkNotNull(amount, "amount");
+        this.delta = delta;
+        this.contexts = ContextSet.of(checkNotNull(contexts, "contexts"));
+    }
+
+    public TransactionType getType() {
+        return this.type;
+    }
+
+    public Account getAccount() {
+        return this.account;
+    }
+
+    /**
+     * The account receiving a transfer, or {@code null} for other
+     * operations.
+     */
+    public Account getTarget() {
+        return this.target;
+    }
+
+    public Currency getCurrency() {
+        return this.currency;
+    }
+
+    public BigDecimal getAmount() {
+        return this.amount;
+    }
+
+    /**
+     * The change to the balance of {@link #getAccount()}.
+     */
+    BigDecimal getDelta() {
+        return this.delta;
+    }
+
+    public Set<Context> getContexts() {
+        return this.contexts;
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.List;
+
+import org.spongepowered.api.service.economy.transaction.ResultType;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The outcome of a batch of transactions. Either every operation succeeded,
+ * or none was applied; in that case the operation that could not be done
+ * carries the reason and every other one is {@link ResultType#FAILED}.
+ */
+public final class BatchResult {
+
+    private final ResultType result;
+    private final List<TransactionResult> results;
+
+    BatchResult(ResultType result, List<TransactionResult> results) {
+        this.result = result;
+        this.results = ImmutableList.copyOf(results);
+    }
+
+    /**
+     * {@link ResultType#SUCCESS} if the batch was applied, otherwise the
+     * reason it was not.
+     */
+    public ResultType getResult() {
+        return this.result;
+    }
+
+    /**
+     * One result per operation, in the order they were given.
+     */
+    public List<TransactionResult> getTransactionResults() {
+        return this.results;
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.transaction.ResultType;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+import org.spongepowered.api.service.economy.transaction.TransactionType;
+import org.spongepowered.api.service.economy.transaction.TransactionTypes;
+
+import me.kenzierocks.plugins.currencysnowmen.implementation.Transactionals.TRData;
+import me.kenzierocks.plugins.currencysnowmen.implementation.Transactionals.TransferData;
+
+/**
+ * Applies a list of operations as one unit. The operations are checked in
+ * order, each against the balances left by the ones before it, and a single
+ * {@link BatchTransactionEvent} is posted without holding any lock. Then every
+ * touched account is locked, the batch is checked again and only the final
+ * value of each balance is written. Each account is saved once.
+ */
+final class BatchTransaction {
+
+    private static final class Slot {
+
+        private final CSAccount account;
+        private final Currency currency;
+        private final Set<Context> contexts;
+
+        Slot(CSAccount account, Currency currency, Set<Context> contexts) {
+            this.account = account;
+            this.currency = currency;
+            this.contexts = contexts;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.account.hashCode();
+            hash = 31 * hash + this.currency.hashCode();
+            return 31 * hash + this.contexts.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Slot)) {
+                return false;
+            }
+            Slot other = (Slot) obj;
+            return this.account == other.account
+                    && this.currency.equals(other.currency)
+                    && this.contexts.equals(other.contexts);
+        }
+
+    }
+
+    private final Cause cause;
+    private final List<BatchOperation> operations;
+    private final TRData[] data;
+    private final Set<CSAccount> accounts = new LinkedHashSet<>();
+    private final Map<Slot, BigDecimal> balances = new HashMap<>();
+    private TransactionResult failure;
+    private int failedAt = -1;
+
+    BatchTransaction(List<BatchOperation> operations, Cause cause) {
+        this.cause = cause;
+        this.operations = operations;
+        this.data = new TRData[operations.size()];
+        for (int i = 0; i < this.data.length; i++) {
+            BatchOperation op = operations.get(i);
+            TransactionType type = op.getDelta().signum() < 0
+                    ? TransactionTypes.WITHDRAW : TransactionTypes.DEPOSIT;
+            this.data[i] = op.getTarget() == null
+                    ? new TRData(op.getAccount(), op.getCurrency(),
+                            op.getDelta(), op.getContexts(), type)
+                    : new TransferData(op.getAccount(), op.getCurrency(),
+                            op.getDelta(), op.getContexts(), type,
+                            op.getTarget());
+        }
+    }
+
+    BatchResult run() {
+        for (int i = 0; i < this.data.length; i++) {
+            BatchOperation op = this.operations.get(i);
+            if (!(op.getAccount() instanceof CSAccount)
+                    || (op.getTarget() != null
+                            && !(op.getTarget() instanceof CSAccount))) {
+                return fail(i, Transactionals.fail(this.data[i]));
+            }
+            this.accounts.add((CSAccount) op.getAccount());
+            if (op.getTarget() != null) {
+                this.accounts.add((CSAccount) op.getTarget());
+            }
+        }
+        if (this.accounts.isEmpty()) {
+            return result();
+        }
+        EventDispatcher events = CSEconomyService.INSTANCE.getEvents();
+        if (events.isPostingBeforeCommit()) {
+            List<TransactionResult> planned =
+                    CSAccount.withAllLocked(this.accounts, this::check);
+            if (events.post(new BatchTransactionEvent(this.cause, planned))) {
+                return fail(0, Transactionals.fail(this.data[0]));
+            }
+            if (this.failure != null) {
+                this.accounts.forEach(CSAccount::touch);
+                return result();
+            }
+        }
+        this.accounts.forEach(CSAccount::touch);
+        CSAccount.withAllLocked(this.accounts, () -> {
+            check();
+            if (this.failure == null) {
+                this.balances.forEach((slot, balance) -> slot.account
+                        .putBalance(slot.currency, slot.contexts, balance));
+            }
+            return null;
+        });
+        if (this.failure == null) {
+            this.accounts.forEach(CSAccount::markDirty);
+        }
+        BatchResult result = result();
+        events.postCommitted(new BatchTransactionEvent(this.cause,
+                result.getTransactionResults()));
+        return result;
+    }
+
+    /**
+     * Works out the new balances. Must hold the locks of every account.
+     */
+    private List<TransactionResult> check() {
+        this.balances.clear();
+        this.failure = null;
+        this.failedAt = -1;
+        for (int i = 0; i < this.data.length; i++) {
+            TransactionResult result = check(this.operations.get(i),
+                    this.data[i]);
+            if (result.getResult() != ResultType.SUCCESS) {
+                this.failure = result;
+                this.failedAt = i;
+                break;
+            }
+        }
+        return results();
+    }
+
+    private TransactionResult check(BatchOperation op, TRData data) {
+        CSAccount account = (CSAccount) op.getAccount();
+        if (op.getTarget() == null) {
+            return CSAccount.checkLimits(data, add(account, op, op.getDelta()));
+        }
+        CSAccount target = (CSAccount) op.getTarget();
+        if (target == account) {
+            // moving money to the same balance changes nothing
+            return CSAccount.checkLimits(data,
+                    add(account, op, BigDecimal.ZERO));
+        }
+        return CSAccount.checkLimits(data, add(account, op, op.getDelta()),
+                add(target, op, op.getAmount()));
+    }
+
+    private BigDecimal add(CSAccount account, BatchOperation op,
+            BigDecimal delta) {
+        Slot slot = new Slot(account, op.getCurrency(), op.getContexts());
+        BigDecimal balance = this.balances.get(slot);
+        if (balance == null) {
+            balance = account.getBalanceOrDefault(op.getCurrency(),
+                    op.getContexts());
+        }
+        balance = balance.add(delta);
+        this.balances.put(slot, balance);
+        return balance;
+    }
+
+    private BatchResult fail(int index, TransactionResult result) {
+        this.failure = result;
+        this.failedAt = index;
+        return result();
+    }
+
+    private List<TransactionResult> results() {
+        List<TransactionResult> results = new ArrayList<>(this.data.length);
+        for (int i = 0; i < this.data.length; i++) {
+            TransactionResult result;
+            if (this.failure == null) {
+                result = Transactionals.success(this.data[i]);
+            } else if (i == this.failedAt) {
+                result = this.failure;
+            } else {
+                result = Transactionals.fail(this.data[i]);
+            }
+            BatchOperation op = this.operations.get(i);
+            if (op.getTarget() != null) {
+                result = Transactionals.transfer(result, op.getTarget());
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private BatchResult result() {
+        List<TransactionResult> results = results();
+        Metrics metrics = CSEconomyService.INSTANCE.getMetrics();
+        for (TransactionResult result : results) {
+            metrics.recordTransaction(result.getType(), result.getResult());
+        }
+        return new BatchResult(this.failure == null ? ResultType.SUCCESS
+                : this.failure.getResult(), results);
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.List;
+
+import org.spongepowered.api.event.Cancellable;
+import org.spongepowered.api.event.Event;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.event.economy.EconomyTransactionEvent;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+
+/**
+ * Posted once for a batch of transactions, in place of an
+ * {@link EconomyTransactionEvent} for each of them. Cancelling it fails the
+ * whole batch.
+ */
+public final class BatchTransactionEvent implements Event, Cancellable {
+
+    private final Cause cause;
+    private final List<TransactionResult> results;
+    private boolean cancelled;
+
+    BatchTransactionEvent(Cause cause, List<TransactionResult> results) {
+        this.cause = cause;
+        this.results = results;
+    }
+
+    @Override
+    public Cause getCause() {
+        return this.cause;
+    }
+
+    /**
+     * The results the batch will have if it goes ahead. Balances are checked
+     * again when it is applied, so it may still fail.
+     */
+    public List<TransactionResult> getTransactionResults() {
+        return this.results;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+}
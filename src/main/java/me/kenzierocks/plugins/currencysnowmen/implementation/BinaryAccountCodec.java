@@ -0,0 +1,241 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Compact binary account format. After a four byte magic number and a
+ * version byte, the data is laid out as:
+ *
+ * <pre>
+ * varint currency count
+ *   string currency id | varint balance count
+ *     varint context count | (string type | string name)...
+ *     zigzag varint scale | varint length | unscaled value bytes
+ * </pre>
+ *
+ * <p>
+ * Strings are a varint byte length followed by UTF-8.
+ * </p>
+ */
+final class BinaryAccountCodec implements AccountCodec {
+
+    public static final BinaryAccountCodec INSTANCE = new BinaryAccountCodec();
+
+    private static final int MAGIC = 0x43534142; // CSAB
+    private static final byte VERSION = 1;
+
+    static boolean isBinary(ByteBuffer data) {
+        return data.remaining() >= 4
+                && data.getInt(data.position()) == MAGIC;
+    }
+
+    private BinaryAccountCodec() {
+    }
+
+    @Override
+    public byte[] encode(Table<Currency, Set<Context>, BigDecimal> data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                16 + data.size() * 32);
+        out.write(MAGIC >>> 24);
+        out.write(MAGIC >>> 16);
+        out.write(MAGIC >>> 8);
+        out.write(MAGIC);
+        out.write(VERSION);
+        Map<Currency, Map<Set<Context>, BigDecimal>> rows = data.rowMap();
+        writeVarInt(out, rows.size());
+        rows.forEach((currency, balances) -> {
+            writeString(out, CSEconomyService.getCurrencyId(currency));
+            writeVarInt(out, balances.size());
+            balances.forEach((contexts, amount) -> {
+                writeVarInt(out, contexts.size());
+                for (Context context : contexts) {
+                    writeString(out, context.getKey());
+                    writeString(out, context.getValue());
+                }
+                int scale = amount.scale();
+                writeVarInt(out, (scale << 1) ^ (scale >> 31));
+                byte[] unscaled = amount.unscaledValue().toByteArray();
+                writeVarInt(out, unscaled.length);
+                out.write(unscaled, 0, unscaled.length);
+            });
+        });
+        return out.toByteArray();
+    }
+
+    @Override
+    public void decode(ByteBuffer data,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        decode(data, null, target);
+    }
+
+    /**
+     * Balances in other currencies than {@code only} are skipped without
+     * being decoded.
+     */
+    @Override
+    public void decode(ByteBuffer data, Currency only,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        String onlyId = only == null ? null
+                : CSEconomyService.getCurrencyId(only);
+        try {
+            if (data.getInt() != MAGIC) {
+                throw new IOException("not binary account data");
+            }
+            byte version = data.get();
+            if (version != VERSION) {
+                throw new IOException(
+                        "unsupported account data version " + version);
+            }
+            int rows = readSize(data);
+            for (int r = 0; r < rows; r++) {
+                String currencyId = readString(data);
+                int balances = readSize(data);
+                if (onlyId != null && !onlyId.equals(currencyId)) {
+                    skipBalances(data, balances);
+                    continue;
+                }
+                Currency currency = CSEconomyService.INSTANCE
+                        .getCurrencyByIdentifier(currencyId);
+                if (currency == null) {
+                    CSPlugin.getInstance().getLogger().warn(
+                            "Skipping balances in unknown currency "
+                                    + currencyId);
+                    skipBalances(data, balances);
+                    continue;
+                }
+                for (int b = 0; b < balances; b++) {
+                    int contextCount = readSize(data);
+                    ImmutableSet.Builder<Context> contexts =
+                            ImmutableSet.builder();
+                    for (int c = 0; c < contextCount; c++) {
+                        contexts.add(
+                                new Context(readString(data), readString(data)));
+                    }
+                    int zigzag = readVarInt(data);
+                    int scale = (zigzag >>> 1) ^ -(zigzag & 1);
+                    int length = readSize(data);
+                    if (length == 0) {
+                        throw new IOException("empty balance value");
+                    }
+                    byte[] unscaled = new byte[length];
+                    data.get(unscaled);
+                    target.put(currency, ContextSet.of(contexts.build()),
+                            new BigDecimal(new BigInteger(unscaled), scale));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated account data", e);
+        }
+    }
+
+    private static void skipBalances(ByteBuffer data, int balances)
+            throws IOException {
+        for (int b = 0; b < balances; b++) {
+            int contextCount = readSize(data);
+            for (int c = 0; c < contextCount * 2; c++) {
+                skip(data, readSize(data));
+            }
+            readVarInt(data);
+            skip(data, readSize(data));
+        }
+    }
+
+    private static void skip(ByteBuffer in, int length) {
+        in.position(in.position() + length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Reads a length or count. Every byte or item takes at least a byte, so
+     * anything larger than what is left can't be right.
+     */
+    private static int readSize(ByteBuffer in) throws IOException {
+        int size = readVarInt(in);
+        if (size < 0 || size > in.remaining()) {
+            throw new IOException("truncated account data");
+        }
+        return size;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = readSize(in);
+        if (in.hasArray()) {
+            String value = new String(in.array(),
+                    in.arrayOffset() + in.position(), length,
+                    StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
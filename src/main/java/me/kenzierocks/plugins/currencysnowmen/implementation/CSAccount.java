@@ -25,20 +25,29 @@
 package me.kenzierocks.plugins.currencysnowmen.implementation;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
-import java.lang.reflect.Type;
 import java.math.BigDecimal;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongPredicate;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
+import java.util.function.UnaryOperator;
 
-import org.spongepowered.api.Sponge;
 import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.event.economy.EconomyTransactionEvent;
 import org.spongepowered.api.service.context.Context;
@@ -53,51 +62,93 @@ import org.spongepowered.api.service.economy.transaction.TransferResult;
 import org.spongepowered.api.text.Text;
 
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Table;
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
 import me.kenzierocks.plugins.currencysnowmen.ExtendedCurrency;
 import me.kenzierocks.plugins.currencysnowmen.implementation.Transactionals.TRData;
+import me.kenzierocks.plugins.currencysnowmen.implementation.Transactionals.TransferData;
 
 public class CSAccount implements Account {
 
-    private static final Gson JSON;
-    @SuppressWarnings("serial")
-    private static final Type DATA_TYPE =
-            new TypeToken<Table<Currency, Set<Context>, BigDecimal>>() {
-            }.getType();
-    static {
-        GsonBuilder builder = new GsonBuilder();
-        builder.registerTypeAdapter(DATA_TYPE, new DataMapAdapter());
-        JSON = builder.create();
-    }
-
     private static TransactionResult handleAction(CSAccount $this, Cause cause,
             TRData data, Supplier<TransactionResult> provideInitialState,
             Supplier<TransactionResult> ifSuccessful) {
-        TransactionResult result = provideInitialState.get();
-        EconomyTransactionEvent transaction =
-                Transactionals.createEvent(cause, result);
-        boolean canceled = Sponge.getEventManager().post(transaction);
-        if (canceled) {
-            return Transactionals.fail(data);
+        TransactionResult result = postAndCommit($this, cause, data,
+                provideInitialState, ifSuccessful);
+        CSEconomyService.INSTANCE.getMetrics()
+                .recordTransaction(result.getType(), result.getResult());
+        return result;
+    }
+
+    private static TransactionResult postAndCommit(CSAccount $this,
+            Cause cause, TRData data,
+            Supplier<TransactionResult> provideInitialState,
+            Supplier<TransactionResult> ifSuccessful) {
+        EventDispatcher events = CSEconomyService.INSTANCE.getEvents();
+        if (events.isPostingBeforeCommit()) {
+            TransactionResult result = provideInitialState.get();
+            EconomyTransactionEvent transaction =
+                    Transactionals.createEvent(cause, result);
+            boolean canceled = events.post(transaction);
+            if (canceled) {
+                return Transactionals.fail(data);
+            }
+            if (result.getResult() != ResultType.SUCCESS) {
+                $this.touch();
+                return result;
+            }
         }
+        // the commit checks the limits again, so nothing is lost by skipping
+        // the initial state when there is no event to show it to
+        $this.touch();
+        TransactionResult result = ifSuccessful.get();
         if (result.getResult() == ResultType.SUCCESS) {
-            result = ifSuccessful.get();
-            if (result.getResult() == ResultType.SUCCESS) {
-                $this.save();
-            }
+            $this.markDirty();
         }
+        events.postCommitted(cause, result);
         return result;
     }
 
+    private static final AtomicLong LOCK_ORDER = new AtomicLong();
+
+    private static final class ActiveContexts {
+
+        private final long epoch;
+        private final ContextSet contexts;
+
+        ActiveContexts(long epoch, ContextSet contexts) {
+            this.epoch = epoch;
+            this.contexts = contexts;
+        }
+
+    }
+
     private final String id;
-    private final Text displayName;
-    private final Table<Currency, Set<Context>, BigDecimal> currencyTable =
+    private final long lockOrder = LOCK_ORDER.getAndIncrement();
+    // guards the balances; see withBothLocked for the order to take several
+    private final ReentrantLock lock = new ReentrantLock();
+    // accumulated deposits folded under the lock, announced once it's free
+    private final Queue<TRData> folded = new ConcurrentLinkedQueue<>();
+    private volatile Text displayName;
+    private final Table<Currency, Set<Context>, Balance> currencyTable =
             HashBasedTable.create();
+    private final ReentrantLock saveLock = new ReentrantLock();
+    private volatile long lastAccess = System.nanoTime();
+    private final AccountJournal journal;
+    private final boolean journaling;
+    private boolean journalFailed;
+    // balance writes so far, and how many of them are saved
+    private long changes;
+    private long savedChanges;
+    private volatile ActiveContexts activeContexts;
+    private TRData unchanged;
+    // deposits collected for accumulating currencies, made on first use
+    private volatile ConcurrentMap<Currency,
+            ConcurrentMap<ContextSet, PendingDeposits>> deposits;
+    private volatile boolean depositsQueued;
 
     protected CSAccount(String id) {
         this(id, Text.of(id));
@@ -106,109 +157,767 @@ public class CSAccount implements Account {
     protected CSAccount(String id, Text displayName) {
         this.id = id;
         this.displayName = displayName;
+        this.journal = new AccountJournal(id);
+        this.journaling = CSPlugin.getInstance().getConfig().isJournal();
         load();
     }
 
     public void load() {
-        Path saveLocation = CSPlugin.getInstance().getAccountSerializationDir()
-                .resolve(this.id);
-        if (!Files.exists(saveLocation)) {
+        long start = System.nanoTime();
+        Table<Currency, Set<Context>, BigDecimal> loaded =
+                HashBasedTable.create();
+        try {
+            CSEconomyService.INSTANCE.getStore().load(this.id, loaded);
+        } catch (IOException e) {
+            CSPlugin.getInstance().getLogger()
+                    .error("couldn't load acc " + this.id, e);
+        }
+        try {
+            this.journal.replay(loaded);
+        } catch (IOException e) {
+            CSPlugin.getInstance().getLogger()
+                    .error("couldn't replay journal for acc " + this.id, e);
+        }
+        Leaderboard leaderboard = CSEconomyService.INSTANCE.getLeaderboard();
+        this.lock.lock();
+        try {
+            for (Table.Cell<Currency, Set<Context>, BigDecimal> cell : loaded
+                    .cellSet()) {
+                Currency currency = cell.getRowKey();
+                ContextSet contexts = ContextSet.of(cell.getColumnKey());
+                this.currencyTable.put(currency, contexts, Balance
+                        .of(getFixedPoint(currency), cell.getValue()));
+                // the saved leaderboard may predate a crash
+                leaderboard.update(this.id, currency, contexts,
+                        cell.getValue());
+            }
+        } finally {
+            unlock();
+        }
+        CSEconomyService.INSTANCE.getMetrics()
+                .recordLoad(System.nanoTime() - start);
+    }
+
+    private static FixedPoint getFixedPoint(Currency currency) {
+        return CSEconomyService.INSTANCE.getFixedPoint(currency);
+    }
+
+    void touch() {
+        this.lastAccess = System.nanoTime();
+    }
+
+    /**
+     * Touches this account if it is still {@code listed}, checked under the
+     * lock so that an eviction either sees the touch or has finished.
+     */
+    boolean touchIf(BooleanSupplier listed) {
+        this.lock.lock();
+        try {
+            if (!listed.getAsBoolean()) {
+                return false;
+            }
+            touch();
+            return true;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * The {@link System#nanoTime()} of the last lookup of or transaction on
+     * this account.
+     */
+    long getLastAccess() {
+        return this.lastAccess;
+    }
+
+    /**
+     * Runs {@code evict} if {@code unused} accepts the last access, holding
+     * the save lock and the lock throughout, so that nobody can look the
+     * account up in between. Returns false if it didn't run.
+     */
+    boolean evictIf(LongPredicate unused, BooleanSupplier evict) {
+        this.saveLock.lock();
+        try {
+            this.lock.lock();
+            try {
+                return unused.test(this.lastAccess) && evict.getAsBoolean();
+            } finally {
+                unlock();
+            }
+        } finally {
+            this.saveLock.unlock();
+        }
+    }
+
+    /**
+     * Schedules this account to be saved, either right away or by the
+     * write-behind flusher. With journaling on, the flusher writes the
+     * journal records of the change instead, and a save is only needed once
+     * the journal is long enough to be worth compacting.
+     */
+    public void markDirty() {
+        AccountFlusher flusher = CSEconomyService.INSTANCE.getFlusher();
+        if (this.journaling) {
+            flusher.markJournal(this);
+        }
+        this.lock.lock();
+        try {
+            if (this.journaling && !this.journalFailed
+                    && this.journal.getRecordCount() < CSPlugin.getInstance()
+                            .getConfig().getJournalCompactThreshold()) {
+                return;
+            }
+        } finally {
+            unlock();
+        }
+        flusher.markDirty(this);
+    }
+
+    /**
+     * Collects a deposit of {@code units} in an accumulating currency
+     * instead of making it. Returns false if it has to be made directly.
+     */
+    private boolean accumulate(Currency currency, ContextSet contexts,
+            long units) {
+        ConcurrentMap<Currency, ConcurrentMap<ContextSet,
+                PendingDeposits>> deposits = this.deposits;
+        if (deposits == null) {
+            this.lock.lock();
+            try {
+                deposits = this.deposits;
+                if (deposits == null) {
+                    deposits = new ConcurrentHashMap<>();
+                    this.deposits = deposits;
+                }
+            } finally {
+                unlock();
+            }
+        }
+        ConcurrentMap<ContextSet, PendingDeposits> row =
+                deposits.get(currency);
+        if (row == null) {
+            row = deposits.computeIfAbsent(currency,
+                    c -> new ConcurrentHashMap<>());
+        }
+        PendingDeposits pending = row.get(contexts);
+        if (pending == null) {
+            pending = row.computeIfAbsent(contexts,
+                    c -> new PendingDeposits());
+        }
+        if (!pending.add(units)) {
+            return false;
+        }
+        // checked after adding, so a fold that clears the flag sees the units
+        if (!this.depositsQueued) {
+            this.depositsQueued = true;
+            CSEconomyService.INSTANCE.getAccumulator().queue(this);
+        }
+        return true;
+    }
+
+    /**
+     * Folds every collected deposit, for the {@link DepositAccumulator}.
+     */
+    void foldQueuedDeposits() {
+        this.depositsQueued = false;
+        foldDeposits();
+    }
+
+    private void foldDeposits() {
+        this.lock.lock();
+        try {
+            ConcurrentMap<Currency, ConcurrentMap<ContextSet,
+                    PendingDeposits>> deposits = this.deposits;
+            if (deposits == null) {
+                return;
+            }
+            deposits.forEach((currency, row) -> row.forEach(
+                    (contexts, pending) -> fold(currency, contexts, pending)));
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Folds the deposits collected for one balance, so that it can be read
+     * or changed.
+     */
+    private void foldDeposits(Currency currency, Set<Context> contexts) {
+        this.lock.lock();
+        try {
+            ConcurrentMap<Currency, ConcurrentMap<ContextSet,
+                    PendingDeposits>> deposits = this.deposits;
+            if (deposits == null) {
+                return;
+            }
+            ConcurrentMap<ContextSet, PendingDeposits> row =
+                    deposits.get(currency);
+            PendingDeposits pending = row == null ? null : row.get(contexts);
+            if (pending != null) {
+                fold(currency, ContextSet.of(contexts), pending);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    private void fold(Currency currency, ContextSet contexts,
+            PendingDeposits pending) {
+        long units = pending.drain();
+        if (units == 0) {
             return;
         }
-        try (
-                Reader reader = Files.newBufferedReader(saveLocation)) {
-            Table<Currency, Set<Context>, BigDecimal> data =
-                    JSON.fromJson(reader, DATA_TYPE);
-            this.currencyTable.putAll(data);
+        FixedPoint fixedPoint = getFixedPoint(currency);
+        Balance cell = this.currencyTable.get(currency, contexts);
+        long now = cell == null ? fixedPoint.getDefaultBalance()
+                : cell instanceof Balance.Units ? ((Balance.Units) cell).units
+                        : FixedPoint.UNREPRESENTABLE;
+        long to = now == FixedPoint.UNREPRESENTABLE ? now
+                : FixedPoint.add(now, units);
+        BigDecimal amount = fixedPoint.toDecimal(units);
+        if (to == FixedPoint.UNREPRESENTABLE || to == Long.MAX_VALUE) {
+            BigDecimal from =
+                    cell == null ? getDefaultBalance(currency) : cell.get();
+            putBalance(currency, contexts, from.add(amount));
+        } else {
+            putUnits(fixedPoint, currency, contexts, to);
+        }
+        this.folded.add(new TRData(this, currency, amount, contexts,
+                TransactionTypes.DEPOSIT));
+    }
+
+    private void unlock() {
+        this.lock.unlock();
+        announceFolds();
+    }
+
+    /**
+     * Announces the deposits folded while the lock was held, once this thread
+     * has let go of it, so that listeners never run under the lock. Folds
+     * change balances, so unless a save is already copying them, the account
+     * is marked dirty as well, even if only a read caused them.
+     */
+    private void announceFolds() {
+        if (this.folded.isEmpty() || this.lock.isHeldByCurrentThread()) {
+            return;
+        }
+        EventDispatcher events = CSEconomyService.INSTANCE.getEvents();
+        boolean any = false;
+        for (TRData data; (data = this.folded.poll()) != null;) {
+            events.announce(Cause.of(CSPlugin.getInstance()), data);
+            any = true;
+        }
+        if (any && !this.saveLock.isHeldByCurrentThread()) {
+            markDirty();
+        }
+    }
+
+    void putBalance(Currency currency, Set<Context> contexts,
+            BigDecimal amount) {
+        this.lock.lock();
+        try {
+            this.currencyTable.put(currency, contexts,
+                    Balance.of(getFixedPoint(currency), amount));
+            this.changes++;
+            CSEconomyService.INSTANCE.getLeaderboard().update(this.id, currency,
+                    ContextSet.of(contexts), amount);
+            if (this.journaling) {
+                appendJournal(currency, contexts, amount);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    private void putUnits(FixedPoint fixedPoint, Currency currency,
+            Set<Context> contexts, long units) {
+        this.lock.lock();
+        try {
+            Balance cell = this.currencyTable.get(currency, contexts);
+            Balance.Units unitCell;
+            if (cell instanceof Balance.Units) {
+                unitCell = (Balance.Units) cell;
+                unitCell.units = units;
+            } else {
+                unitCell = new Balance.Units(fixedPoint, units);
+                this.currencyTable.put(currency, contexts, unitCell);
+            }
+            this.changes++;
+            BigDecimal balance = unitCell.get();
+            CSEconomyService.INSTANCE.getLeaderboard().update(this.id, currency,
+                    ContextSet.of(contexts), balance);
+            if (this.journaling) {
+                appendJournal(currency, contexts, balance);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    private void appendJournal(Currency currency, Set<Context> contexts,
+            BigDecimal amount) {
+        try {
+            this.journal.append(currency, contexts, amount);
         } catch (IOException e) {
+            // fall back to a full save
+            this.journalFailed = true;
             CSPlugin.getInstance().getLogger()
-                    .error("couldn't load acc " + this.id, e);
+                    .error("couldn't journal acc " + this.id, e);
+        }
+    }
+
+    /**
+     * Writes the journal records queued so far.
+     */
+    void flushJournal() {
+        try {
+            this.journal.flush();
+        } catch (IOException e) {
+            // fall back to a full save
+            this.lock.lock();
+            try {
+                this.journalFailed = true;
+            } finally {
+                unlock();
+            }
+            CSPlugin.getInstance().getLogger()
+                    .error("couldn't journal acc " + this.id, e);
+        }
+    }
+
+    /**
+     * Writes out and closes this account's journal, when it is unloaded.
+     */
+    void closeJournal() {
+        flushJournal();
+        try {
+            this.journal.close();
+        } catch (IOException e) {
+            CSPlugin.getInstance().getLogger()
+                    .error("couldn't close journal for acc " + this.id, e);
+        }
+    }
+
+    /**
+     * True if a balance changed since the last save.
+     */
+    boolean isDirty() {
+        this.lock.lock();
+        try {
+            return this.changes != this.savedChanges;
+        } finally {
+            unlock();
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final CSAccount account;
+        private final Table<Currency, Set<Context>, BigDecimal> data;
+        private final long version;
+        private boolean compacting = true;
+
+        private Snapshot(CSAccount account,
+                Table<Currency, Set<Context>, BigDecimal> data, long version) {
+            this.account = account;
+            this.data = data;
+            this.version = version;
         }
+
     }
 
+    /**
+     * Writes a full snapshot of this account and drops the journal records
+     * it covers. Does nothing if nothing changed since the last save.
+     */
     public void save() {
-        Path saveLocation = CSPlugin.getInstance().getAccountSerializationDir()
-                .resolve(this.id);
-        if (!Files.exists(saveLocation)) {
+        this.saveLock.lock();
+        try {
+            Snapshot snapshot = snapshot();
+            if (snapshot == null) {
+                return;
+            }
+            rotateJournal(snapshot);
             try {
-                Files.createDirectories(saveLocation.getParent());
-                Files.createFile(saveLocation);
+                long start = System.nanoTime();
+                CSEconomyService.INSTANCE.getStore().save(this.id,
+                        snapshot.data);
+                CSEconomyService.INSTANCE.getMetrics()
+                        .recordSave(System.nanoTime() - start);
             } catch (IOException e) {
                 CSPlugin.getInstance().getLogger()
                         .error("couldn't save acc " + this.id, e);
+                return;
+            }
+            finishSave(snapshot);
+        } finally {
+            this.saveLock.unlock();
+        }
+    }
+
+    /**
+     * Saves each of {@code accounts} that has unsaved changes, handing them
+     * to the store as one batch.
+     */
+    static void saveAll(Collection<CSAccount> accounts) {
+        CSAccount[] sorted = accounts.toArray(new CSAccount[accounts.size()]);
+        Arrays.sort(sorted, Comparator.comparingLong(a -> a.lockOrder));
+        List<Snapshot> snapshots = new ArrayList<>(sorted.length);
+        int locked = 0;
+        try {
+            for (CSAccount account : sorted) {
+                account.saveLock.lock();
+                locked++;
+                Snapshot snapshot = account.snapshot();
+                if (snapshot != null) {
+                    snapshots.add(snapshot);
+                }
+            }
+            if (snapshots.isEmpty()) {
+                return;
+            }
+            for (Snapshot snapshot : snapshots) {
+                snapshot.account.rotateJournal(snapshot);
+            }
+            Map<String, Table<Currency, Set<Context>, BigDecimal>> data =
+                    new LinkedHashMap<>();
+            for (Snapshot snapshot : snapshots) {
+                data.put(snapshot.account.id, snapshot.data);
+            }
+            try {
+                long start = System.nanoTime();
+                CSEconomyService.INSTANCE.getStore().saveAll(data);
+                // shared out, so the histogram stays per account
+                long each = (System.nanoTime() - start) / snapshots.size();
+                for (int i = 0; i < snapshots.size(); i++) {
+                    CSEconomyService.INSTANCE.getMetrics().recordSave(each);
+                }
+            } catch (IOException e) {
+                CSPlugin.getInstance().getLogger().error(
+                        "couldn't save " + snapshots.size() + " accounts", e);
+                return;
+            }
+            for (Snapshot snapshot : snapshots) {
+                snapshot.account.finishSave(snapshot);
+            }
+        } finally {
+            for (int i = 0; i < locked; i++) {
+                sorted[i].saveLock.unlock();
             }
         }
-        try (
-                Writer writer = Files.newBufferedWriter(saveLocation)) {
-            JSON.toJson(this.currencyTable, DATA_TYPE, writer);
+    }
+
+    /**
+     * Copies the balances to save, or returns {@code null} if nothing
+     * changed since the last save. The save lock must be held until the
+     * save is finished.
+     */
+    private Snapshot snapshot() {
+        this.lock.lock();
+        try {
+            foldDeposits();
+            if (this.changes == this.savedChanges) {
+                return null;
+            }
+            Table<Currency, Set<Context>, BigDecimal> data =
+                    HashBasedTable.create();
+            for (Table.Cell<Currency, Set<Context>,
+                    Balance> cell : this.currencyTable.cellSet()) {
+                data.put(cell.getRowKey(), cell.getColumnKey(),
+                        cell.getValue().get());
+            }
+            this.journal.beginCompaction();
+            this.journalFailed = false;
+            return new Snapshot(this, data, this.changes);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Moves the journal records covered by {@code snapshot} aside, outside
+     * the account lock.
+     */
+    private void rotateJournal(Snapshot snapshot) {
+        try {
+            this.journal.rotate();
         } catch (IOException e) {
-            CSPlugin.getInstance().getLogger()
-                    .error("couldn't save acc " + this.id, e);
+            snapshot.compacting = false;
+            CSPlugin.getInstance().getLogger().error(
+                    "couldn't compact journal for acc " + this.id, e);
+        }
+    }
+
+    private void finishSave(Snapshot snapshot) {
+        this.lock.lock();
+        try {
+            this.savedChanges = snapshot.version;
+        } finally {
+            unlock();
+        }
+        if (snapshot.compacting) {
+            try {
+                this.journal.finishCompaction();
+            } catch (IOException e) {
+                CSPlugin.getInstance().getLogger().error(
+                        "couldn't compact journal for acc " + this.id, e);
+            }
+        }
+    }
+
+    static TransactionResult checkLimits(TRData data,
+            BigDecimal... newBalances) {
+        Currency currency = data.getCurrency();
+        if (!(currency instanceof ExtendedCurrency)) {
+            return Transactionals.success(data);
+        }
+        ExtendedCurrency extCur = (ExtendedCurrency) currency;
+        if (!extCur.supportsNegatives()) {
+            for (BigDecimal balance : newBalances) {
+                if (balance.compareTo(BigDecimal.ZERO) < 0) {
+                    return Transactionals.failNoFunds(data);
+                }
+            }
+        }
+        Optional<BigDecimal> maxBal = extCur.getMaximumAccountBalance();
+        for (BigDecimal balance : newBalances) {
+            if (maxBal.filter(max -> max.compareTo(balance) < 0).isPresent()) {
+                return Transactionals.failMaxSize(data);
+            }
+        }
+        return Transactionals.success(data);
+    }
+
+    /**
+     * Runs {@code action} holding the locks of both accounts. Locks are
+     * always taken in the order the accounts were created, so transfers in
+     * opposite directions between the same accounts cannot deadlock.
+     */
+    private static <T> T withBothLocked(CSAccount a, CSAccount b,
+            Supplier<T> action) {
+        CSAccount first = a.lockOrder < b.lockOrder ? a : b;
+        CSAccount second = first == a ? b : a;
+        try {
+            first.lock.lock();
+            try {
+                second.lock.lock();
+                try {
+                    return action.get();
+                } finally {
+                    second.lock.unlock();
+                }
+            } finally {
+                first.lock.unlock();
+            }
+        } finally {
+            first.announceFolds();
+            second.announceFolds();
         }
     }
 
+    /**
+     * Runs {@code action} holding the locks of all {@code accounts}, taken
+     * in the same order as {@link #withBothLocked} and released in reverse.
+     */
+    static <T> T withAllLocked(Collection<CSAccount> accounts,
+            Supplier<T> action) {
+        CSAccount[] sorted = accounts.toArray(new CSAccount[accounts.size()]);
+        Arrays.sort(sorted, Comparator.comparingLong(a -> a.lockOrder));
+        int locked = 0;
+        try {
+            for (CSAccount account : sorted) {
+                account.lock.lock();
+                locked++;
+            }
+            return action.get();
+        } finally {
+            while (locked > 0) {
+                sorted[--locked].lock.unlock();
+            }
+            for (CSAccount account : sorted) {
+                account.announceFolds();
+            }
+        }
+    }
+
+    /**
+     * Events are posted without holding any account lock, so listeners may
+     * use the economy freely. The change is then re-applied to the balance
+     * as it is at commit time and checked again, because another thread may
+     * have changed it in the meantime.
+     */
     private TransactionResult handleNonTransfer(Cause cause, BigDecimal from,
-            BigDecimal to, Currency currency, Set<Context> contexts) {
+            UnaryOperator<BigDecimal> change, Currency currency,
+            Set<Context> contexts) {
+        BigDecimal to = change.apply(from);
         BigDecimal delta = to.subtract(from);
         TransactionType type = from.compareTo(to) > 0
                 ? TransactionTypes.WITHDRAW : TransactionTypes.DEPOSIT;
         TRData data = new TRData(this, currency, delta, contexts, type);
-        return handleAction(this, cause, data, () -> {
-            if (currency instanceof ExtendedCurrency) {
-                ExtendedCurrency extCur = (ExtendedCurrency) currency;
-                if (!extCur.supportsNegatives()
-                        && to.compareTo(BigDecimal.ZERO) < 0) {
-                    return Transactionals.failNoFunds(data);
-                }
-                if (extCur.getMaximumAccountBalance()
-                        .filter(max -> max.compareTo(to) < 0).isPresent()) {
-                    return Transactionals.failMaxSize(data);
-                }
+        return handleAction(this, cause, data, () -> checkLimits(data, to),
+                () -> commitChange(data, change));
+    }
+
+    private TransactionResult commitChange(TRData data,
+            UnaryOperator<BigDecimal> change) {
+        this.lock.lock();
+        try {
+            Currency currency = data.getCurrency();
+            Set<Context> contexts = data.getContexts();
+            BigDecimal now =
+                    change.apply(getBalanceOrDefault(currency, contexts));
+            TransactionResult result = checkLimits(data, now);
+            if (result.getResult() == ResultType.SUCCESS) {
+                putBalance(currency, contexts, now);
             }
-            return Transactionals.success(data);
-        }, () -> {
-            this.currencyTable.put(currency, contexts, to);
-            return Transactionals.success(data);
-        });
+            return result;
+        } finally {
+            unlock();
+        }
     }
 
-    private TransactionResult handleTransfer(Cause cause, BigDecimal from,
-            BigDecimal to, Currency currency, Set<Context> contexts,
-            Account target) {
+    /**
+     * {@link #handleNonTransfer} for adding {@code delta} units to a balance
+     * held in units. A balance held as a {@link BigDecimal} takes the
+     * general path.
+     */
+    private TransactionResult handleUnits(Cause cause, FixedPoint fixedPoint,
+            long delta, BigDecimal deltaAmount, Currency currency,
+            Set<Context> contexts) {
+        UnaryOperator<BigDecimal> change = current -> current.add(deltaAmount);
+        long from = getUnitsOrDefault(fixedPoint, currency, contexts);
+        if (from == FixedPoint.UNREPRESENTABLE) {
+            return handleNonTransfer(cause,
+                    getBalanceOrDefault(currency, contexts), change, currency,
+                    contexts);
+        }
+        TransactionType type = delta < 0 ? TransactionTypes.WITHDRAW
+                : TransactionTypes.DEPOSIT;
+        TRData data = new TRData(this, currency, deltaAmount, contexts, type);
+        return handleAction(this, cause, data,
+                () -> fixedPoint.checkLimits(data, FixedPoint.add(from, delta)),
+                () -> commitUnits(data, fixedPoint, delta, change));
+    }
+
+    private TransactionResult commitUnits(TRData data, FixedPoint fixedPoint,
+            long delta, UnaryOperator<BigDecimal> change) {
+        this.lock.lock();
+        try {
+            Currency currency = data.getCurrency();
+            Set<Context> contexts = data.getContexts();
+            long now = getUnitsOrDefault(fixedPoint, currency, contexts);
+            if (now == FixedPoint.UNREPRESENTABLE) {
+                return commitChange(data, change);
+            }
+            long to = FixedPoint.add(now, delta);
+            TransactionResult result = fixedPoint.checkLimits(data, to);
+            if (result.getResult() == ResultType.SUCCESS) {
+                putUnits(fixedPoint, currency, contexts, to);
+            }
+            return result;
+        } finally {
+            unlock();
+        }
+    }
+
+    private TransactionResult handleTransfer(Cause cause, BigDecimal amount,
+            Currency currency, Set<Context> contexts, Account target) {
+        BigDecimal from = getBalanceOrDefault(currency, contexts);
+        BigDecimal to = from.subtract(amount);
         BigDecimal delta = to.subtract(from);
         TransactionType type = from.compareTo(to) > 0
                 ? TransactionTypes.WITHDRAW : TransactionTypes.DEPOSIT;
-        TRData data = new TRData(this, currency, delta, contexts, type);
+        TRData data = new TransferData(this, currency, delta, contexts, type,
+                target);
         if (!(target instanceof CSAccount)) {
             return Transactionals.fail(data);
         }
         CSAccount that = (CSAccount) target;
-        BigDecimal thisAccNewVal = to;
-        BigDecimal thatAccNewVal =
-                that.getBalanceOrDefault(currency, contexts).subtract(delta);
-        return handleAction(this, cause, data, () -> {
-            if (currency instanceof ExtendedCurrency) {
-                ExtendedCurrency extCur = (ExtendedCurrency) currency;
-                if (!extCur.supportsNegatives() && (thisAccNewVal
-                        .compareTo(BigDecimal.ZERO) < 0
-                        || thatAccNewVal.compareTo(BigDecimal.ZERO) < 0)) {
-                    return Transactionals.failNoFunds(data);
-                }
-                Optional<BigDecimal> maxBal = extCur.getMaximumAccountBalance();
-                if (maxBal.filter(max -> max.compareTo(thisAccNewVal) < 0)
-                        .isPresent()
-                        || maxBal
-                                .filter(max -> max.compareTo(thatAccNewVal) < 0)
-                                .isPresent()) {
-                    return Transactionals.failMaxSize(data);
-                }
-            }
-            return Transactionals.success(data);
-        }, () -> {
-            this.currencyTable.put(currency, contexts, thisAccNewVal);
-            that.currencyTable.put(currency, contexts, thatAccNewVal);
-            return Transactionals.success(data);
-        });
+        if (that == this) {
+            // moving money to the same balance changes nothing
+            return handleAction(this, cause, data,
+                    () -> checkLimits(data, from),
+                    () -> Transactionals.success(data));
+        }
+        BigDecimal thatTo =
+                that.getBalanceOrDefault(currency, contexts).add(amount);
+        return handleAction(this, cause, data,
+                () -> checkLimits(data, to, thatTo), () -> {
+                    TransactionResult result = withBothLocked(this, that,
+                            () -> commitTransfer(data, amount, that));
+                    if (result.getResult() == ResultType.SUCCESS) {
+                        that.markDirty();
+                    }
+                    return result;
+                });
+    }
+
+    private TransactionResult commitTransfer(TRData data, BigDecimal amount,
+            CSAccount that) {
+        Currency currency = data.getCurrency();
+        Set<Context> contexts = data.getContexts();
+        BigDecimal thisNow =
+                getBalanceOrDefault(currency, contexts).subtract(amount);
+        BigDecimal thatNow =
+                that.getBalanceOrDefault(currency, contexts).add(amount);
+        TransactionResult result = checkLimits(data, thisNow, thatNow);
+        if (result.getResult() == ResultType.SUCCESS) {
+            putBalance(currency, contexts, thisNow);
+            that.putBalance(currency, contexts, thatNow);
+        }
+        return result;
+    }
+
+    private TransactionResult handleUnitsTransfer(Cause cause,
+            FixedPoint fixedPoint, long amount, BigDecimal decimalAmount,
+            Currency currency, Set<Context> contexts, CSAccount that) {
+        long from = getUnitsOrDefault(fixedPoint, currency, contexts);
+        long thatFrom = that.getUnitsOrDefault(fixedPoint, currency, contexts);
+        if (from == FixedPoint.UNREPRESENTABLE
+                || thatFrom == FixedPoint.UNREPRESENTABLE) {
+            return handleTransfer(cause, decimalAmount, currency, contexts,
+                    that);
+        }
+        TransactionType type = amount > 0 ? TransactionTypes.WITHDRAW
+                : TransactionTypes.DEPOSIT;
+        TRData data = new TransferData(this, currency, decimalAmount.negate(),
+                contexts, type, that);
+        return handleAction(this, cause, data,
+                () -> fixedPoint.checkLimits(data,
+                        FixedPoint.add(from, -amount),
+                        FixedPoint.add(thatFrom, amount)),
+                () -> {
+                    TransactionResult result = withBothLocked(this, that,
+                            () -> commitUnitsTransfer(data, fixedPoint, amount,
+                                    decimalAmount, that));
+                    if (result.getResult() == ResultType.SUCCESS) {
+                        that.markDirty();
+                    }
+                    return result;
+                });
+    }
+
+    private TransactionResult commitUnitsTransfer(TRData data,
+            FixedPoint fixedPoint, long amount, BigDecimal decimalAmount,
+            CSAccount that) {
+        Currency currency = data.getCurrency();
+        Set<Context> contexts = data.getContexts();
+        long thisNow = getUnitsOrDefault(fixedPoint, currency, contexts);
+        long thatNow = that.getUnitsOrDefault(fixedPoint, currency, contexts);
+        if (thisNow == FixedPoint.UNREPRESENTABLE
+                || thatNow == FixedPoint.UNREPRESENTABLE) {
+            return commitTransfer(data, decimalAmount, that);
+        }
+        long thisTo = FixedPoint.add(thisNow, -amount);
+        long thatTo = FixedPoint.add(thatNow, amount);
+        TransactionResult result =
+                fixedPoint.checkLimits(data, thisTo, thatTo);
+        if (result.getResult() == ResultType.SUCCESS) {
+            putUnits(fixedPoint, currency, contexts, thisTo);
+            that.putUnits(fixedPoint, currency, contexts, thatTo);
+        }
+        return result;
     }
 
     @Override
@@ -216,18 +925,52 @@ public class CSAccount implements Account {
         return this.id;
     }
 
+    /**
+     * The active contexts are cached until the calculators change or someone
+     * {@linkplain CSEconomyService#invalidateContexts() invalidates} them.
+     */
     @Override
     public Set<Context> getActiveContexts() {
-        Set<ContextCalculator<Account>> ccs =
-                CSEconomyService.INSTANCE.getContextCalculators();
+        long epoch = CSEconomyService.INSTANCE.getContextEpoch();
+        ActiveContexts cached = this.activeContexts;
+        if (cached != null && cached.epoch == epoch) {
+            return cached.contexts;
+        }
+        ContextSet contexts = calculateActiveContexts();
+        this.activeContexts = new ActiveContexts(epoch, contexts);
+        return contexts;
+    }
+
+    /**
+     * Makes this account work out its active contexts again on next use.
+     */
+    public void invalidateContexts() {
+        this.activeContexts = null;
+    }
+
+    private ContextSet calculateActiveContexts() {
+        ContextCalculator<Account>[] ccs =
+                CSEconomyService.INSTANCE.getContextCalculatorArray();
         Set<Context> contexts = new HashSet<>();
         for (ContextCalculator<Account> contextCalculator : ccs) {
             contextCalculator.accumulateContexts(this, contexts);
         }
-        return contexts.stream()
-                .filter(ctxt -> ccs.stream()
-                        .anyMatch(calc -> calc.matches(ctxt, this)))
-                .collect(Collectors.toSet());
+        for (Iterator<Context> iter = contexts.iterator(); iter.hasNext();) {
+            if (!matchesAny(ccs, iter.next())) {
+                iter.remove();
+            }
+        }
+        return ContextSet.of(contexts);
+    }
+
+    private boolean matchesAny(ContextCalculator<Account>[] ccs,
+            Context context) {
+        for (ContextCalculator<Account> calc : ccs) {
+            if (calc.matches(context, this)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -235,6 +978,10 @@ public class CSAccount implements Account {
         return this.displayName;
     }
 
+    void setDisplayName(Text displayName) {
+        this.displayName = displayName;
+    }
+
     @Override
     public BigDecimal getDefaultBalance(Currency currency) {
         if (currency instanceof ExtendedCurrency) {
@@ -243,46 +990,132 @@ public class CSAccount implements Account {
         return BigDecimal.ZERO;
     }
 
+    /**
+     * The number of balances held, for metrics.
+     */
+    int getBalanceCount() {
+        this.lock.lock();
+        try {
+            return this.currencyTable.size();
+        } finally {
+            unlock();
+        }
+    }
+
     @Override
     public boolean hasBalance(Currency currency, Set<Context> contexts) {
-        return this.currencyTable.contains(currency, contexts);
+        this.lock.lock();
+        try {
+            contexts = ContextSet.of(contexts);
+            foldDeposits(currency, contexts);
+            return this.currencyTable.contains(currency, contexts);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * The balance, or {@code null} if there is none.
+     */
+    BigDecimal findBalance(Currency currency, ContextSet contexts) {
+        this.lock.lock();
+        try {
+            foldDeposits(currency, contexts);
+            Balance cell = this.currencyTable.get(currency, contexts);
+            return cell == null ? null : cell.get();
+        } finally {
+            unlock();
+        }
+    }
+
+    BigDecimal getBalanceOrDefault(Currency currency, Set<Context> contexts) {
+        this.lock.lock();
+        try {
+            foldDeposits(currency, contexts);
+            Balance cell = this.currencyTable.get(currency, contexts);
+            return cell == null ? getDefaultBalance(currency) : cell.get();
+        } finally {
+            unlock();
+        }
     }
 
-    private BigDecimal getBalanceOrDefault(Currency currency,
+    /**
+     * The balance in units, or {@link FixedPoint#UNREPRESENTABLE} if it is
+     * held as a {@link BigDecimal}.
+     */
+    private long getUnitsOrDefault(FixedPoint fixedPoint, Currency currency,
             Set<Context> contexts) {
-        return this.currencyTable.row(currency).getOrDefault(contexts,
-                getDefaultBalance(currency));
+        this.lock.lock();
+        try {
+            foldDeposits(currency, contexts);
+            Balance cell = this.currencyTable.get(currency, contexts);
+            if (cell == null) {
+                return fixedPoint.getDefaultBalance();
+            }
+            return cell instanceof Balance.Units ? ((Balance.Units) cell).units
+                    : FixedPoint.UNREPRESENTABLE;
+        } finally {
+            unlock();
+        }
     }
 
     @Override
     public BigDecimal getBalance(Currency currency, Set<Context> contexts) {
-        return this.currencyTable.row(currency).getOrDefault(contexts,
-                BigDecimal.ZERO);
+        this.lock.lock();
+        try {
+            contexts = ContextSet.of(contexts);
+            foldDeposits(currency, contexts);
+            Balance cell = this.currencyTable.get(currency, contexts);
+            return cell == null ? BigDecimal.ZERO : cell.get();
+        } finally {
+            unlock();
+        }
     }
 
     @Override
     public Map<Currency, BigDecimal> getBalances(Set<Context> contexts) {
-        return this.currencyTable.column(contexts);
+        this.lock.lock();
+        try {
+            contexts = ContextSet.of(contexts);
+            foldDeposits();
+            ImmutableMap.Builder<Currency, BigDecimal> balances =
+                    ImmutableMap.builder();
+            this.currencyTable.column(contexts).forEach(
+                    (currency, cell) -> balances.put(currency, cell.get()));
+            return balances.build();
+        } finally {
+            unlock();
+        }
     }
 
     @Override
     public TransactionResult setBalance(Currency currency, BigDecimal amount,
             Cause cause, Set<Context> contexts) {
-        return handleNonTransfer(cause, getBalance(currency, contexts), amount,
-                currency, contexts);
+        contexts = ContextSet.of(contexts);
+        return handleNonTransfer(cause, getBalance(currency, contexts),
+                current -> amount, currency, contexts);
     }
 
     @Override
     public TransactionResult resetBalances(Cause cause, Set<Context> contexts) {
+        return resetBalances(cause, ContextSet.of(contexts));
+    }
+
+    private TransactionResult resetBalances(Cause cause,
+            ContextSet contexts) {
         boolean allOk = true;
-        // TODO wait for the econ api to not suck
-        TRData fakedData =
-                this.currencyTable.rowMap().entrySet().stream().findFirst()
-                        .map(e -> new TRData(this, e.getKey(),
-                                getDefaultBalance(e.getKey()), contexts,
-                                TransactionTypes.WITHDRAW))
-                        .orElse(null);
-        for (Currency currency : this.currencyTable.rowKeySet()) {
+        Set<Currency> currencies;
+        this.lock.lock();
+        try {
+            foldDeposits();
+            currencies = ImmutableSet.copyOf(this.currencyTable.rowKeySet());
+        } finally {
+            unlock();
+        }
+        if (currencies.isEmpty()) {
+            return null;
+        }
+        for (Currency currency : currencies) {
             if (!hasBalance(currency, contexts)) {
                 // don't reset balances that don't exist
                 continue;
@@ -290,19 +1123,38 @@ public class CSAccount implements Account {
             allOk &= setBalance(currency, getDefaultBalance(currency), cause,
                     contexts).getResult() == ResultType.SUCCESS;
         }
-        return fakedData == null ? null
-                : (allOk ? Transactionals.success(fakedData)
-                        : Transactionals.fail(fakedData));
+        // TODO wait for the econ api to not suck
+        Currency first = currencies.iterator().next();
+        return new TRData(this, first, getDefaultBalance(first), contexts,
+                TransactionTypes.WITHDRAW,
+                allOk ? ResultType.SUCCESS : ResultType.FAILED);
+    }
+
+    /**
+     * The result of resetting a balance that doesn't exist. The last one is
+     * kept and shared, since the same balance tends to be reset repeatedly.
+     */
+    private TransactionResult unchanged(Currency currency,
+            ContextSet contexts) {
+        // results are immutable, so a stale read only costs an allocation
+        TRData result = this.unchanged;
+        if (result == null || result.getContexts() != contexts
+                || !result.getCurrency().equals(currency)) {
+            result = new TRData(this, currency, BigDecimal.ZERO, contexts,
+                    TransactionTypes.WITHDRAW);
+            this.unchanged = result;
+        }
+        return result;
     }
 
     @Override
     public TransactionResult resetBalance(Currency currency, Cause cause,
             Set<Context> contexts) {
-        if (!hasBalance(currency, contexts)) {
-            TRData data = new TRData(this, currency, BigDecimal.ZERO, contexts,
-                    TransactionTypes.WITHDRAW);
-            return Transactionals.success(data);
+        ContextSet contextSet = ContextSet.of(contexts);
+        if (!hasBalance(currency, contextSet)) {
+            return unchanged(currency, contextSet);
         }
+        contexts = contextSet;
         return setBalance(currency, getDefaultBalance(currency), cause,
                 contexts);
     }
@@ -310,25 +1162,57 @@ public class CSAccount implements Account {
     @Override
     public TransactionResult deposit(Currency currency, BigDecimal amount,
             Cause cause, Set<Context> contexts) {
-        BigDecimal start = getBalanceOrDefault(currency, contexts);
-        return handleNonTransfer(cause, start, start.add(amount), currency,
-                contexts);
+        ContextSet contextSet = ContextSet.of(contexts);
+        FixedPoint fixedPoint = getFixedPoint(currency);
+        long units = fixedPoint == null ? FixedPoint.UNREPRESENTABLE
+                : fixedPoint.toUnits(amount);
+        if (units != FixedPoint.UNREPRESENTABLE) {
+            if (units > 0 && fixedPoint.accumulatesDeposits()
+                    && accumulate(currency, contextSet, units)) {
+                touch();
+                CSEconomyService.INSTANCE.getMetrics().recordTransaction(
+                        TransactionTypes.DEPOSIT, ResultType.SUCCESS);
+                return new TRData(this, currency, amount, contextSet,
+                        TransactionTypes.DEPOSIT);
+            }
+            return handleUnits(cause, fixedPoint, units, amount, currency,
+                    contextSet);
+        }
+        return handleNonTransfer(cause,
+                getBalanceOrDefault(currency, contextSet),
+                current -> current.add(amount), currency, contextSet);
     }
 
     @Override
     public TransactionResult withdraw(Currency currency, BigDecimal amount,
             Cause cause, Set<Context> contexts) {
-        BigDecimal start = getBalanceOrDefault(currency, contexts);
-        return handleNonTransfer(cause, start, start.subtract(amount), currency,
-                contexts);
+        contexts = ContextSet.of(contexts);
+        FixedPoint fixedPoint = getFixedPoint(currency);
+        long units = fixedPoint == null ? FixedPoint.UNREPRESENTABLE
+                : fixedPoint.toUnits(amount);
+        if (units != FixedPoint.UNREPRESENTABLE) {
+            return handleUnits(cause, fixedPoint, -units, amount.negate(),
+                    currency, contexts);
+        }
+        return handleNonTransfer(cause, getBalanceOrDefault(currency, contexts),
+                current -> current.subtract(amount), currency, contexts);
     }
 
     @Override
     public TransferResult transfer(Account to, Currency currency,
             BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal start = getBalanceOrDefault(currency, contexts);
-        TransactionResult res = handleTransfer(cause, start,
-                start.subtract(amount), currency, contexts, to);
+        contexts = ContextSet.of(contexts);
+        FixedPoint fixedPoint = getFixedPoint(currency);
+        long units = fixedPoint == null ? FixedPoint.UNREPRESENTABLE
+                : fixedPoint.toUnits(amount);
+        TransactionResult res;
+        if (units != FixedPoint.UNREPRESENTABLE && to instanceof CSAccount
+                && to != this) {
+            res = handleUnitsTransfer(cause, fixedPoint, units, amount,
+                    currency, contexts, (CSAccount) to);
+        } else {
+            res = handleTransfer(cause, amount, currency, contexts, to);
+        }
         return Transactionals.transfer(res, to);
     }
 
@@ -24,19 +24,38 @@
  */
 package me.kenzierocks.plugins.currencysnowmen.implementation;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.spongepowered.api.Sponge;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.context.ContextCalculator;
 import org.spongepowered.api.service.economy.Currency;
 import org.spongepowered.api.service.economy.EconomyService;
@@ -47,22 +66,48 @@ import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.util.Identifiable;
 
 import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Table;
 
+import me.kenzierocks.plugins.currencysnowmen.CSConfig;
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
 import me.kenzierocks.plugins.currencysnowmen.ExtendedCurrency;
 
 public class CSEconomyService implements EconomyService {
 
     public static final CSEconomyService INSTANCE = new CSEconomyService();
 
-    private final Set<ContextCalculator<Account>> calculators = new HashSet<>();
+    private static final int MIGRATION_BATCH_SIZE = 256;
+
+    private final Set<ContextCalculator<Account>> calculators =
+            new CopyOnWriteArraySet<>();
     private final transient Set<ContextCalculator<Account>> calculatorsReadOnlyView =
             Collections.unmodifiableSet(this.calculators);
+    @SuppressWarnings("unchecked")
+    private volatile ContextCalculator<Account>[] calculatorArray =
+            (ContextCalculator<Account>[]) new ContextCalculator<?>[0];
+    private final AtomicLong contextEpoch = new AtomicLong();
     private final BiMap<String, ExtendedCurrency> currencies =
             HashBiMap.create();
     private final transient Set<Currency> readOnlyView =
             Collections.unmodifiableSet(this.currencies.values());
-    private final Map<String, Account> accountMap = new HashMap<>();
+    private final Map<Currency, FixedPoint> fixedPoints =
+            new ConcurrentHashMap<>();
+    private final AccountRegistry accounts =
+            new AccountRegistry(this::reloadAccount, this::isSaved);
+    private final AccountFlusher flusher = new AccountFlusher();
+    private final DepositAccumulator accumulator = new DepositAccumulator();
+    private final AsyncEconomy async = new AsyncEconomy(this);
+    private final EventDispatcher events = new EventDispatcher();
+    private final Metrics metrics = new Metrics();
+    private final Leaderboard leaderboard = new Leaderboard();
+    private final Set<UUID> onlinePlayers = ConcurrentHashMap.newKeySet();
+    private Task evictionTask;
+    private ForkJoinPool aggregationPool;
+    private Task flushTask;
+    private AccountStore store;
     private ExtendedCurrency defaultC;
 
     private CSEconomyService() {
@@ -75,28 +120,433 @@ public class CSEconomyService implements EconomyService {
             this.defaultC = currency;
         }
         this.currencies.put(currency.getIdentifer(), currency);
+        FixedPoint fixedPoint = FixedPoint.of(currency);
+        if (fixedPoint != null) {
+            this.fixedPoints.put(currency, fixedPoint);
+        }
+    }
+
+    /**
+     * The fixed-point form of {@code currency}, or {@code null} if its
+     * balances are kept as {@link java.math.BigDecimal}s.
+     */
+    FixedPoint getFixedPoint(Currency currency) {
+        return this.fixedPoints.get(currency);
     }
     
     public ExtendedCurrency getCurrencyByIdentifier(String id) {
         return this.currencies.get(id);
     }
 
+    /**
+     * The identifier {@code currency} is saved under. This API has no ids
+     * for currencies that aren't {@link ExtendedCurrency ExtendedCurrencies},
+     * so those are named after their class. Balances in them are saved, but
+     * skipped as unknown when read back.
+     */
+    static String getCurrencyId(Currency currency) {
+        return currency instanceof ExtendedCurrency
+                ? ((ExtendedCurrency) currency).getIdentifer()
+                : currency.getClass().getName();
+    }
+
+    public AccountFlusher getFlusher() {
+        return this.flusher;
+    }
+
+    public DepositAccumulator getAccumulator() {
+        return this.accumulator;
+    }
+
+    /**
+     * The non-blocking form of this service.
+     */
+    public AsyncEconomy getAsync() {
+        return this.async;
+    }
+
+    public EventDispatcher getEvents() {
+        return this.events;
+    }
+
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    public Leaderboard getLeaderboard() {
+        return this.leaderboard;
+    }
+
+    /**
+     * Reads the leaderboard written by {@link #saveLeaderboard}. If there is
+     * none, or it can't be read, it is rebuilt from the stored accounts on
+     * {@code executor} instead.
+     */
+    public void loadLeaderboard(Path file, Executor executor) {
+        boolean loaded;
+        try {
+            loaded = this.leaderboard.load(file);
+        } catch (IOException e) {
+            CSPlugin.getInstance().getLogger()
+                    .warn("couldn't read the leaderboard, rebuilding it", e);
+            loaded = false;
+        }
+        if (!loaded) {
+            executor.execute(() -> {
+                try {
+                    this.leaderboard.rebuild(getStore());
+                } catch (IOException e) {
+                    CSPlugin.getInstance().getLogger()
+                            .error("couldn't rebuild the leaderboard", e);
+                }
+            });
+        }
+    }
+
+    public void saveLeaderboard(Path file) throws IOException {
+        this.leaderboard.save(file);
+    }
+
+    synchronized AccountStore getStore() {
+        if (this.store == null) {
+            CSConfig config = CSPlugin.getInstance().getConfig();
+            try {
+                this.store = createStore(config.getStoreType(), config);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot open the account store!",
+                        e);
+            }
+        }
+        return this.store;
+    }
+
+    /**
+     * Keeps accounts in {@code store} instead of the configured one. Must be
+     * called before any account is loaded, for example while the server is
+     * starting.
+     */
+    public synchronized void setStore(AccountStore store) {
+        checkState(this.store == null, "the account store is already in use");
+        this.store = checkNotNull(store, "store");
+    }
+
+    private static AccountStore createStore(String type, CSConfig config)
+            throws IOException {
+        Path dir = CSPlugin.getInstance().getAccountSerializationDir();
+        Path configDir = CSPlugin.getInstance().getConfigDir();
+        AccountCodec codec = AccountCodecs.byName(config.getFormat());
+        GroupCommit commits = new GroupCommit(config.isFsync(),
+                config.getGroupCommitMillis());
+        switch (type) {
+            case "files":
+                return new FileAccountStore(dir, codec, commits);
+            case "segment":
+                return new SegmentAccountStore(dir, codec,
+                        new FileAccountStore(dir, codec, commits), commits);
+            case "h2":
+                return SqlAccountStore.open(configDir.resolve("accounts"),
+                        SqlAccountStore.Dialect.H2, codec);
+            case "sqlite":
+                return SqlAccountStore.open(configDir.resolve("accounts.db"),
+                        SqlAccountStore.Dialect.SQLITE, codec);
+            case "memory":
+                return new MemoryAccountStore();
+            default:
+                throw new IllegalArgumentException(
+                        "unknown account store " + type);
+        }
+    }
+
+    /**
+     * Copies every saved account into a store of another type, for example
+     * to move from files to a database. Unsaved changes are saved first.
+     * Accounts keep using the current store; change the configured store and
+     * restart to use the new one.
+     *
+     * @return The number of accounts copied
+     */
+    public CompletableFuture<Integer> migrateAccounts(String targetType,
+            Executor executor, Consumer<String> progress) {
+        CSConfig config = CSPlugin.getInstance().getConfig();
+        checkArgument(!targetType.equals(config.getStoreType()),
+                "already using the %s store", targetType);
+        checkArgument(!targetType.equals("memory"),
+                "the memory store can't be migrated to");
+        return CompletableFuture.supplyAsync(() -> {
+            CSAccount.saveAll(
+                    this.accounts.stream().collect(Collectors.toList()));
+            AccountStore source = getStore();
+            try (AccountStore target = createStore(targetType, config)) {
+                List<String> ids = new ArrayList<>(source.listIds());
+                Map<String, Table<Currency, Set<Context>, BigDecimal>> batch =
+                        new LinkedHashMap<>();
+                for (int i = 0; i < ids.size(); i++) {
+                    Table<Currency, Set<Context>, BigDecimal> data =
+                            HashBasedTable.create();
+                    source.read(ids.get(i), null, data);
+                    batch.put(ids.get(i), data);
+                    if (batch.size() == MIGRATION_BATCH_SIZE
+                            || i == ids.size() - 1) {
+                        target.saveAll(batch);
+                        batch.clear();
+                        progress.accept("Copied " + (i + 1) + " of "
+                                + ids.size() + " accounts");
+                    }
+                }
+                return ids.size();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Writes all pending changes and closes the account store.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (this.evictionTask != null) {
+                this.evictionTask.cancel();
+                this.evictionTask = null;
+            }
+            if (this.flushTask != null) {
+                this.flushTask.cancel();
+                this.flushTask = null;
+            }
+        }
+        this.async.shutdown();
+        this.accumulator.stop();
+        this.flusher.stop();
+        this.accounts.stream().forEach(CSAccount::closeJournal);
+        synchronized (this) {
+            if (this.store != null) {
+                try {
+                    this.store.close();
+                } catch (IOException e) {
+                    CSPlugin.getInstance().getLogger()
+                            .error("couldn't close the account store", e);
+                }
+                this.store = null;
+            }
+        }
+        this.events.shutdown();
+        this.metrics.stop();
+        synchronized (this) {
+            if (this.aggregationPool != null) {
+                this.aggregationPool.shutdown();
+                this.aggregationPool = null;
+            }
+        }
+    }
+
     public Set<ContextCalculator<Account>> getContextCalculators() {
         return this.calculatorsReadOnlyView;
     }
+
+    /**
+     * The registered calculators. Replaced, never modified, so it may be
+     * iterated without copying.
+     */
+    ContextCalculator<Account>[] getContextCalculatorArray() {
+        return this.calculatorArray;
+    }
+
+    /**
+     * Changes whenever every account's active contexts have to be worked out
+     * again.
+     */
+    long getContextEpoch() {
+        return this.contextEpoch.get();
+    }
+
+    /**
+     * Makes every account work out its active contexts again on next use.
+     * Accounts cache their active contexts, so a calculator whose results
+     * change, for example when a player changes worlds, must call this or
+     * {@link CSAccount#invalidateContexts()}.
+     */
+    public void invalidateContexts() {
+        this.contextEpoch.incrementAndGet();
+    }
     
+    /**
+     * Every loaded account. Safe to use while accounts are being created or
+     * removed on other threads.
+     */
     public Stream<Account> getAccounts() {
-        return this.accountMap.values().stream();
+        return this.accounts.stream().map(Account.class::cast);
     }
-    
+
+    /**
+     * Drops the account from the cache, saving it first if needed. It is
+     * loaded again the next time it is asked for.
+     */
     public void removeAccount(String id) {
-        this.accountMap.remove(id);
+        this.accounts.remove(id, this.flusher);
+    }
+
+    /**
+     * Starts evicting accounts that have been idle longer than
+     * {@code idleMillis}, or the least recently used ones once there are
+     * more than {@code maxSize}. Online players are evicted last.
+     */
+    public synchronized void startEviction(Object plugin, int maxSize,
+            long idleMillis, long intervalMillis) {
+        if (this.evictionTask != null) {
+            this.evictionTask.cancel();
+        }
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.evictionTask = Sponge.getScheduler().createTaskBuilder().async()
+                .name("Currency☃ account eviction")
+                .interval(intervalMillis, TimeUnit.MILLISECONDS)
+                .execute(() -> this.accounts.evict(maxSize, idleNanos,
+                        this::isOnline, this.flusher))
+                .submit(plugin);
+    }
+
+    /**
+     * Saves every loaded account that has unsaved changes and unloads them
+     * all, so everything is loaded from disk again. The work is spread over
+     * several ticks, using at most {@code budgetMillis} per tick, and
+     * {@code progress} is told how far along it is about once a second.
+     *
+     * @return False if a flush is already running
+     */
+    public synchronized boolean flushIncrementally(Object plugin,
+            long budgetMillis, Consumer<String> progress) {
+        if (this.flushTask != null) {
+            return false;
+        }
+        List<CSAccount> loaded =
+                this.accounts.stream().collect(Collectors.toList());
+        IncrementalFlush flush = new IncrementalFlush(loaded, budgetMillis,
+                progress, () -> {
+                    synchronized (this) {
+                        this.flushTask = null;
+                    }
+                });
+        this.flushTask = Sponge.getScheduler().createTaskBuilder()
+                .name("Currency☃ flush").intervalTicks(1).execute(flush)
+                .submit(plugin);
+        return true;
+    }
+
+    public CacheStats getCacheStats() {
+        return this.accounts.getStats();
+    }
+
+    /**
+     * Starts loading the account of {@code uuid} on {@code executor}, so it
+     * is ready by the time the player can use it. Safe to call from any
+     * thread; does not look up the player, so the display name is filled in
+     * when they join.
+     */
+    public CompletableFuture<UniqueAccount> preloadAccount(UUID uuid,
+            Executor executor) {
+        return CompletableFuture.supplyAsync(() -> loadAccount(uuid),
+                executor);
+    }
+
+    /**
+     * Gets or loads the account of {@code uuid} without looking up the
+     * player, so it may be called off the main thread.
+     */
+    UniqueAccount loadAccount(UUID uuid) {
+        return (UniqueAccount) this.accounts.getOrLoad(uuid.toString(),
+                k -> new CSUniqueAccount(uuid));
+    }
+
+    /**
+     * Writes the ids of the {@code size} most recently used accounts to
+     * {@code file}, for {@link #preloadWarmSet}.
+     */
+    public void saveWarmSet(Path file, int size) throws IOException {
+        WarmSet.save(file, this.accounts.stream(), size);
+    }
+
+    /**
+     * Loads the accounts listed by {@link #saveWarmSet} on
+     * {@code executor}.
+     */
+    public void preloadWarmSet(Path file, Executor executor)
+            throws IOException {
+        WarmSet.load(file,
+                (id, unique) -> executor.execute(() -> this.accounts.getOrLoad(
+                        id, k -> unique ? new CSUniqueAccount(UUID.fromString(k))
+                                : new CSVirtualAccount(k))));
+    }
+
+    public void playerJoined(Player player) {
+        this.onlinePlayers.add(player.getUniqueId());
+        this.accounts.get(player.getUniqueId().toString())
+                .filter(CSUniqueAccount.class::isInstance)
+                .map(CSUniqueAccount.class::cast)
+                .ifPresent(a -> {
+                    a.refreshDisplayName(player);
+                    a.invalidateContexts();
+                });
+    }
+
+    public void playerLeft(UUID uuid) {
+        this.onlinePlayers.remove(uuid);
+    }
+
+    private boolean isOnline(CSAccount account) {
+        return account instanceof CSUniqueAccount && this.onlinePlayers
+                .contains(((CSUniqueAccount) account).getUUID());
+    }
+
+    /**
+     * Applies {@code operations} all together or not at all. One
+     * {@link BatchTransactionEvent} is posted for the whole batch instead of
+     * an event per operation, and each account involved is saved once.
+     * Operations are applied in order, so a later one may spend money an
+     * earlier one deposited.
+     */
+    public BatchResult transact(List<BatchOperation> operations,
+            Cause cause) {
+        return new BatchTransaction(ImmutableList.copyOf(operations), cause)
+                .run();
+    }
+
+    /**
+     * Works out statistics about every account's balance in
+     * {@code currency}, including accounts that aren't loaded, without
+     * loading them. Saved accounts are read in parallel in the background.
+     */
+    public CompletableFuture<BalanceSummary> summarizeBalances(
+            Currency currency, Set<Context> contexts) {
+        ContextSet key = ContextSet.of(contexts);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return BalanceAggregation.summarize(getStore(),
+                        this.accounts.stream(), currency, key);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, getAggregationPool());
+    }
+
+    private synchronized ForkJoinPool getAggregationPool() {
+        if (this.aggregationPool == null) {
+            this.aggregationPool = new ForkJoinPool();
+        }
+        return this.aggregationPool;
     }
 
     @Override
     public void
             registerContextCalculator(ContextCalculator<Account> calculator) {
-        this.calculators.add(calculator);
+        synchronized (this.calculators) {
+            if (this.calculators.add(calculator)) {
+                @SuppressWarnings("unchecked")
+                ContextCalculator<Account>[] array =
+                        (ContextCalculator<Account>[]) this.calculators
+                                .toArray(new ContextCalculator<?>[0]);
+                this.calculatorArray = array;
+            }
+        }
+        invalidateContexts();
     }
 
     @Override
@@ -111,7 +561,7 @@ public class CSEconomyService implements EconomyService {
 
     @Override
     public Optional<UniqueAccount> getAccount(UUID uuid) {
-        return Optional.ofNullable(this.accountMap.get(uuid.toString()))
+        return this.accounts.get(uuid.toString())
                 .filter(UniqueAccount.class::isInstance)
                 .map(UniqueAccount.class::cast);
     }
@@ -119,13 +569,13 @@ public class CSEconomyService implements EconomyService {
     @Override
     public Optional<UniqueAccount> createAccount(UUID uuid) {
         return Optional
-                .ofNullable(this.accountMap.computeIfAbsent(uuid.toString(),
+                .of(this.accounts.getOrLoad(uuid.toString(),
                         k -> createPotentialUserAccount(uuid)))
                 .filter(UniqueAccount.class::isInstance)
                 .map(UniqueAccount.class::cast);
     }
 
-    private UniqueAccount createPotentialUserAccount(UUID uuid) {
+    private CSAccount createPotentialUserAccount(UUID uuid) {
         Identifiable ident = null;
         ident = Sponge.getServer().getPlayer(uuid).orElse(null);
         if (ident == null) {
@@ -137,16 +587,32 @@ public class CSEconomyService implements EconomyService {
                 : new CSUniqueAccount(ident);
     }
 
+    private CSAccount reloadAccount(String id, boolean unique) {
+        return unique ? createPotentialUserAccount(UUID.fromString(id))
+                : new CSVirtualAccount(id);
+    }
+
+    private boolean isSaved(String id) {
+        Table<Currency, Set<Context>, BigDecimal> data =
+                HashBasedTable.create();
+        try {
+            getStore().read(id, null, data);
+        } catch (IOException e) {
+            CSPlugin.getInstance().getLogger()
+                    .error("couldn't look up acc " + id, e);
+        }
+        return !data.isEmpty();
+    }
+
     @Override
     public Optional<Account> getAccount(String identifier) {
-        return Optional.ofNullable(this.accountMap.get(identifier));
+        return this.accounts.get(identifier).map(Account.class::cast);
     }
 
     @Override
     public Optional<VirtualAccount> createVirtualAccount(String identifier) {
         return Optional
-                .ofNullable(this.accountMap.computeIfAbsent(identifier,
-                        CSVirtualAccount::new))
+                .of(this.accounts.getOrLoad(identifier, CSVirtualAccount::new))
                 .filter(VirtualAccount.class::isInstance)
                 .map(VirtualAccount.class::cast);
     }
@@ -65,6 +65,14 @@ public class CSUniqueAccount extends CSAccount implements UniqueAccount {
         this.uuid = uuid;
     }
 
+    /**
+     * Updates the display name from {@code ident}, for accounts that were
+     * created before the player's details were known.
+     */
+    void refreshDisplayName(Identifiable ident) {
+        setDisplayName(mapIdentToText(ident));
+    }
+
     @Override
     public UUID getUUID() {
         return this.uuid;
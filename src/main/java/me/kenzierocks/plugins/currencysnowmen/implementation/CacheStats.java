@@ -0,0 +1,81 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+/**
+ * A snapshot of the account cache counters.
+ */
+public final class CacheStats {
+
+    private final int size;
+    private final int retained;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    CacheStats(int size, int retained, long hits, long misses,
+            long evictions) {
+        this.size = size;
+        this.retained = retained;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * The number of accounts in the cache.
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * The number of evicted accounts that are still referenced elsewhere
+     * and will be reused if looked up again.
+     */
+    public int getRetained() {
+        return this.retained;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + this.size + ", retained=" + this.retained + ", hits="
+                + this.hits + ", misses=" + this.misses + ", evictions="
+                + this.evictions;
+    }
+
+}
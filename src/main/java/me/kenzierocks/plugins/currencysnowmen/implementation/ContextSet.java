@@ -0,0 +1,104 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.spongepowered.api.service.context.Context;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A canonical, immutable set of contexts. There is only ever one instance
+ * for each distinct combination, so comparing two of them almost always
+ * stops at the identity check, and the hash is worked out once. Balance tables are keyed
+ * by these, which also lets every account share the common combinations.
+ *
+ * <p>
+ * Interned sets are never released; there are only as many as there are
+ * distinct combinations in use.
+ * </p>
+ */
+final class ContextSet extends AbstractSet<Context> {
+
+    private static final ConcurrentMap<Set<Context>, ContextSet> INTERNED =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The canonical instance equal to {@code contexts}.
+     */
+    static ContextSet of(Set<Context> contexts) {
+        if (contexts instanceof ContextSet) {
+            return (ContextSet) contexts;
+        }
+        ContextSet interned = INTERNED.get(contexts);
+        if (interned != null) {
+            return interned;
+        }
+        ContextSet created = new ContextSet(ImmutableSet.copyOf(contexts));
+        interned = INTERNED.putIfAbsent(created, created);
+        return interned == null ? created : interned;
+    }
+
+    private final ImmutableSet<Context> contexts;
+    private final int hash;
+
+    private ContextSet(ImmutableSet<Context> contexts) {
+        this.contexts = contexts;
+        this.hash = contexts.hashCode();
+    }
+
+    @Override
+    public Iterator<Context> iterator() {
+        return this.contexts.iterator();
+    }
+
+    @Override
+    public int size() {
+        return this.contexts.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return this.contexts.contains(o);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        // by content, so the intern map can tell when a racing thread has
+        // already added the same combination
+        return o == this || super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+}
@@ -24,18 +24,10 @@
  */
 package me.kenzierocks.plugins.currencysnowmen.implementation;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.function.BiConsumer;
-import java.util.function.BinaryOperator;
-import java.util.function.Function;
-import java.util.function.Supplier;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
 
 import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.economy.Currency;
@@ -43,111 +35,113 @@ import org.spongepowered.api.service.economy.Currency;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Table;
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.InstanceCreator;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import me.kenzierocks.plugins.currencysnowmen.ExtendedCurrency;
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
 
+/**
+ * Streams balance tables to and from JSON of the form
+ * {@code {"<currency>":[[{"<context key>":"<context value>"},<amount>]]}},
+ * without building a JSON tree or any intermediate maps.
+ */
 final class DataMapAdapter
-        implements JsonSerializer<Table<Currency, Set<Context>, BigDecimal>>,
-        JsonDeserializer<Table<Currency, Set<Context>, BigDecimal>>,
-        InstanceCreator<Table<Currency, Set<Context>, BigDecimal>> {
-
-    private static final class CTACollector implements
-            Collector<Entry<Map<String, String>, BigDecimal>, Map<Set<Context>, BigDecimal>, Map<Set<Context>, BigDecimal>> {
-
-        @Override
-        public Supplier<Map<Set<Context>, BigDecimal>> supplier() {
-            return HashMap::new;
-        }
-
-        @Override
-        public BiConsumer<Map<Set<Context>, BigDecimal>, Entry<Map<String, String>, BigDecimal>>
-                accumulator() {
-            return (map,
-                    entry) -> map
-                            .put(entry.getKey().entrySet().stream()
-                                    .map(e -> new Context(e.getKey(),
-                                            e.getValue()))
-                            .collect(Collectors.toSet()), entry.getValue());
-        }
+        extends TypeAdapter<Table<Currency, Set<Context>, BigDecimal>> {
 
-        @Override
-        public BinaryOperator<Map<Set<Context>, BigDecimal>> combiner() {
-            return (a, b) -> {
-                a.putAll(b);
-                return a;
-            };
-        }
-
-        @Override
-        public Function<Map<Set<Context>, BigDecimal>, Map<Set<Context>, BigDecimal>>
-                finisher() {
-            return Function.identity();
-        }
-
-        @Override
-        public Set<Characteristics> characteristics() {
-            return ImmutableSet.of(Characteristics.UNORDERED,
-                    Characteristics.IDENTITY_FINISH);
-        }
+    static final DataMapAdapter INSTANCE = new DataMapAdapter();
 
+    private DataMapAdapter() {
     }
 
-    private static final Gson NORMAL_JSON =
-            new GsonBuilder().enableComplexMapKeySerialization().create();
-    @SuppressWarnings("serial")
-    private static final Type DATA_TYPE =
-            new TypeToken<Map<String, Map<Map<String, String>, BigDecimal>>>() {
-            }.getType();
-
     @Override
-    public Table<Currency, Set<Context>, BigDecimal> createInstance(Type type) {
-        return HashBasedTable.create();
+    public void write(JsonWriter out,
+            Table<Currency, Set<Context>, BigDecimal> src) throws IOException {
+        out.beginObject();
+        for (Map.Entry<Currency, Map<Set<Context>, BigDecimal>> row : src
+                .rowMap().entrySet()) {
+            out.name(CSEconomyService.getCurrencyId(row.getKey()));
+            out.beginArray();
+            for (Map.Entry<Set<Context>, BigDecimal> balance : row.getValue()
+                    .entrySet()) {
+                out.beginArray();
+                out.beginObject();
+                for (Context context : balance.getKey()) {
+                    out.name(context.getKey()).value(context.getValue());
+                }
+                out.endObject();
+                out.value(balance.getValue());
+                out.endArray();
+            }
+            out.endArray();
+        }
+        out.endObject();
     }
 
     @Override
-    public Table<Currency, Set<Context>, BigDecimal> deserialize(
-            JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                    throws JsonParseException {
-        System.err.println(json);
-        Map<String, Map<Map<String, String>, BigDecimal>> data =
-                NORMAL_JSON.fromJson(json, DATA_TYPE);
+    public Table<Currency, Set<Context>, BigDecimal> read(JsonReader in)
+            throws IOException {
         Table<Currency, Set<Context>, BigDecimal> target =
-                createInstance(typeOfT);
-        data.forEach((str, map) -> {
-            Currency currency =
-                    CSEconomyService.INSTANCE.getCurrencyByIdentifier(str);
-            Map<Set<Context>, BigDecimal> contextToAmount =
-                    map.entrySet().stream().collect(new CTACollector());
-            target.row(currency).putAll(contextToAmount);
-        });
+                HashBasedTable.create();
+        read(in, null, target);
         return target;
     }
 
-    @Override
-    public JsonElement serialize(Table<Currency, Set<Context>, BigDecimal> src,
-            Type typeOfSrc, JsonSerializationContext context) {
-        Map<String, Map<Map<String, String>, BigDecimal>> data =
-                new HashMap<>();
-        src.rowMap().forEach((currency, contextToAmount) -> {
-            String id = ((ExtendedCurrency) currency).getIdentifer();
-            contextToAmount.forEach((contextSet, amount) -> {
-                data.computeIfAbsent(id, k -> new HashMap<>())
-                        .put(contextSet.stream().collect(Collectors
-                                .toMap(Entry::getKey, Entry::getValue)),
-                        amount);
-            });
-        });
-        return NORMAL_JSON.toJsonTree(data, DATA_TYPE);
+    /**
+     * Reads balances into {@code target}. If {@code currency} is not
+     * {@code null}, balances in other currencies are skipped without being
+     * parsed.
+     */
+    void read(JsonReader in, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            String currencyId = in.nextName();
+            Currency rowCurrency = CSEconomyService.INSTANCE
+                    .getCurrencyByIdentifier(currencyId);
+            if (rowCurrency == null) {
+                CSPlugin.getInstance().getLogger().warn(
+                        "Skipping balances in unknown currency " + currencyId);
+                in.skipValue();
+                continue;
+            }
+            if (currency != null && !currency.equals(rowCurrency)) {
+                in.skipValue();
+                continue;
+            }
+            Map<Set<Context>, BigDecimal> row = target.row(rowCurrency);
+            if (in.peek() == JsonToken.BEGIN_OBJECT) {
+                // an empty row, which Gson wrote as {}
+                in.skipValue();
+                continue;
+            }
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginArray();
+                Set<Context> contexts = readContexts(in);
+                row.put(contexts, new BigDecimal(in.nextString()));
+                in.endArray();
+            }
+            in.endArray();
+        }
+        in.endObject();
+    }
+
+    private static Set<Context> readContexts(JsonReader in)
+            throws IOException {
+        in.beginObject();
+        ImmutableSet.Builder<Context> contexts = ImmutableSet.builder();
+        while (in.hasNext()) {
+            contexts.add(new Context(in.nextName(), in.nextString()));
+        }
+        in.endObject();
+        return ContextSet.of(contexts.build());
     }
 
 }
@@ -0,0 +1,98 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.Task;
+
+import com.google.common.collect.Sets;
+
+import me.kenzierocks.plugins.currencysnowmen.ExtendedCurrency;
+
+/**
+ * Folds deposits that accounts have collected for
+ * {@linkplain ExtendedCurrency#accumulatesDeposits() accumulating currencies}
+ * into their balances every so often, and schedules the accounts to be
+ * saved. Balances are also folded whenever they are read.
+ */
+public final class DepositAccumulator {
+
+    private final Set<CSAccount> pending = Sets.newConcurrentHashSet();
+    private Task task;
+
+    DepositAccumulator() {
+    }
+
+    /**
+     * Starts folding collected deposits every {@code intervalMillis}.
+     */
+    public synchronized void start(Object plugin, long intervalMillis) {
+        if (this.task != null) {
+            this.task.cancel();
+        }
+        this.task = Sponge.getScheduler().createTaskBuilder().async()
+                .name("Currency☃ deposit accumulator")
+                .interval(intervalMillis, TimeUnit.MILLISECONDS)
+                .execute(this::fold).submit(plugin);
+    }
+
+    /**
+     * Stops the background task and folds what is left on the calling
+     * thread.
+     */
+    public synchronized void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+        fold();
+    }
+
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    void queue(CSAccount account) {
+        this.pending.add(account);
+    }
+
+    /**
+     * Folds the deposits of every account that collected some.
+     */
+    public void fold() {
+        for (Iterator<CSAccount> iter = this.pending.iterator(); iter
+                .hasNext();) {
+            CSAccount account = iter.next();
+            // remove first, a deposit made during the fold queues it again
+            iter.remove();
+            account.foldQueuedDeposits();
+        }
+    }
+
+}
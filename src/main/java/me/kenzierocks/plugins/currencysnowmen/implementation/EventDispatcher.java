@@ -0,0 +1,226 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.event.Event;
+import org.spongepowered.api.event.EventListener;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+
+import com.google.common.collect.Sets;
+
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Decides whether and when economy events are posted.
+ *
+ * <p>
+ * Sponge can't tell us whether anything listens for an event, so listeners
+ * that want to be counted register through
+ * {@link #registerListener(Object, Class, EventListener)} or
+ * {@link #registerListeners(Object, Object)} instead of through the event
+ * manager directly. In {@link Mode#LISTENERS} mode, events are only built and
+ * posted while at least one such listener exists.
+ * </p>
+ */
+public final class EventDispatcher {
+
+    public enum Mode {
+
+        /**
+         * Post a cancellable event before every transaction is committed.
+         */
+        SYNC,
+
+        /**
+         * Like {@link #SYNC}, but only while a listener is registered
+         * through the dispatcher. Other listeners miss events.
+         */
+        LISTENERS,
+
+        /**
+         * Post events from a background thread after the transaction is
+         * committed, in commit order. Listeners only observe; cancelling has
+         * no effect. If listeners fall too far behind, further events are
+         * dropped and {@linkplain EventDispatcher#getDroppedEvents()
+         * counted} instead of piling up.
+         */
+        ASYNC;
+
+        public static Mode byName(String name) {
+            switch (name) {
+                case "sync":
+                    return SYNC;
+                case "listeners":
+                    return LISTENERS;
+                case "async":
+                    return ASYNC;
+                default:
+                    throw new IllegalArgumentException(
+                            "unknown event mode " + name);
+            }
+        }
+
+    }
+
+    private static final int MAX_QUEUED_EVENTS = 10000;
+
+    private final Set<Object> listeners = Sets.newConcurrentHashSet();
+    private volatile Mode mode = Mode.SYNC;
+    private volatile ExecutorService observerThread;
+    private final LongAdder dropped = new LongAdder();
+
+    EventDispatcher() {
+    }
+
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    public synchronized void setMode(Mode mode) {
+        this.mode = mode;
+        if (mode == Mode.ASYNC && this.observerThread == null) {
+            this.observerThread = new ThreadPoolExecutor(1, 1, 0,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED_EVENTS), r -> {
+                        Thread thread =
+                                new Thread(r, "Currency☃ event observer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }, (r, executor) -> {
+                        // once shut down, nobody is left to observe it
+                        if (!executor.isShutdown()) {
+                            this.dropped.increment();
+                        }
+                    });
+        }
+    }
+
+    public <T extends Event> void registerListener(Object plugin,
+            Class<T> eventClass, EventListener<? super T> listener) {
+        Sponge.getEventManager().registerListener(plugin, eventClass,
+                listener);
+        this.listeners.add(listener);
+    }
+
+    public void registerListeners(Object plugin, Object listener) {
+        Sponge.getEventManager().registerListeners(plugin, listener);
+        this.listeners.add(listener);
+    }
+
+    public void unregisterListeners(Object listener) {
+        Sponge.getEventManager().unregisterListeners(listener);
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Whether a cancellable event has to be posted before committing.
+     */
+    boolean isPostingBeforeCommit() {
+        Mode mode = this.mode;
+        return mode == Mode.SYNC
+                || (mode == Mode.LISTENERS && !this.listeners.isEmpty());
+    }
+
+    /**
+     * Posts {@code event} now, returning true if it was cancelled.
+     */
+    boolean post(Event event) {
+        long start = System.nanoTime();
+        boolean cancelled = Sponge.getEventManager().post(event);
+        CSEconomyService.INSTANCE.getMetrics()
+                .recordEventPost(System.nanoTime() - start);
+        return cancelled;
+    }
+
+    /**
+     * Reports a committed transaction to observers, if events are
+     * asynchronous.
+     */
+    void postCommitted(Cause cause, TransactionResult result) {
+        if (this.mode == Mode.ASYNC) {
+            postCommitted(Transactionals.createEvent(cause, result));
+        }
+    }
+
+    /**
+     * Reports a transaction that was committed without an event beforehand,
+     * in every mode. Synchronous listeners get it right away, but cancelling
+     * it has no effect.
+     */
+    void announce(Cause cause, TransactionResult result) {
+        if (isPostingBeforeCommit()) {
+            post(Transactionals.createEvent(cause, result));
+        } else {
+            postCommitted(cause, result);
+        }
+    }
+
+    void postCommitted(Event event) {
+        ExecutorService observerThread = this.observerThread;
+        if (this.mode == Mode.ASYNC && observerThread != null) {
+            observerThread.execute(() -> post(event));
+        }
+    }
+
+    /**
+     * The number of asynchronous events dropped because the observer thread
+     * was too far behind.
+     */
+    public long getDroppedEvents() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Delivers the events that are still queued, waiting a few seconds at
+     * most.
+     */
+    synchronized void shutdown() {
+        if (this.observerThread == null) {
+            return;
+        }
+        this.observerThread.shutdown();
+        try {
+            if (!this.observerThread.awaitTermination(5, TimeUnit.SECONDS)) {
+                CSPlugin.getInstance().getLogger()
+                        .warn("Dropping economy events that were not "
+                                + "delivered in time");
+                this.observerThread.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.observerThread = null;
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+
+/**
+ * The original layout: one file per account, named after its id. Files in
+ * another format than the configured one are rewritten when first loaded.
+ *
+ * <p>
+ * A save writes a new temporary file, syncs it and renames it over the old
+ * one, so a crash or a full disk leaves either the old or the new file,
+ * never a torn one. The syncs are grouped with those of other saves.
+ * </p>
+ */
+final class FileAccountStore implements AccountStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final AccountCodec codec;
+    private final GroupCommit commits;
+
+    FileAccountStore(Path directory, AccountCodec codec,
+            GroupCommit commits) {
+        this.directory = directory;
+        this.codec = codec;
+        this.commits = commits;
+    }
+
+    @Override
+    public void load(String id,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        Path saveLocation = this.directory.resolve(id);
+        if (!Files.exists(saveLocation)) {
+            return;
+        }
+        Table<Currency, Set<Context>, BigDecimal> data =
+                HashBasedTable.create();
+        AccountCodec found = AccountCodecs.decode(
+                ByteBuffer.wrap(Files.readAllBytes(saveLocation)), data);
+        if (found != this.codec) {
+            save(id, data);
+        }
+        target.putAll(data);
+    }
+
+    @Override
+    public void read(String id, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        Path saveLocation = this.directory.resolve(id);
+        if (Files.exists(saveLocation)) {
+            AccountCodecs.decode(
+                    ByteBuffer.wrap(Files.readAllBytes(saveLocation)),
+                    currency, target);
+        }
+    }
+
+    private static final class PendingFile {
+
+        private final Path temp;
+        private final Path target;
+        private final FileChannel channel;
+
+        private PendingFile(Path temp, Path target, FileChannel channel) {
+            this.temp = temp;
+            this.target = target;
+            this.channel = channel;
+        }
+
+    }
+
+    @Override
+    public void save(String id, Table<Currency, Set<Context>, BigDecimal> data)
+            throws IOException {
+        saveAll(ImmutableMap.of(id, data));
+    }
+
+    /**
+     * Writes every account to its temporary file first, then syncs and
+     * renames them all as one group.
+     */
+    @Override
+    public void saveAll(
+            Map<String, Table<Currency, Set<Context>, BigDecimal>> accounts)
+                    throws IOException {
+        Files.createDirectories(this.directory);
+        List<PendingFile> pending = new ArrayList<>(accounts.size());
+        try {
+            for (Map.Entry<String, Table<Currency, Set<Context>,
+                    BigDecimal>> account : accounts.entrySet()) {
+                String id = account.getKey();
+                ByteBuffer bytes =
+                        ByteBuffer.wrap(this.codec.encode(account.getValue()));
+                // unique, in case the account is written from two places
+                Path temp = Files.createTempFile(this.directory, id + ".",
+                        TEMP_SUFFIX);
+                PendingFile file = new PendingFile(temp,
+                        this.directory.resolve(id),
+                        FileChannel.open(temp, StandardOpenOption.WRITE));
+                pending.add(file);
+                while (bytes.hasRemaining()) {
+                    file.channel.write(bytes);
+                }
+            }
+            this.commits.commit(() -> {
+                for (PendingFile file : pending) {
+                    try (FileChannel written = file.channel) {
+                        if (this.commits.isDurable()) {
+                            written.force(false);
+                        }
+                    }
+                    Files.move(file.temp, file.target,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            }, this.directory);
+        } finally {
+            for (PendingFile file : pending) {
+                file.channel.close();
+                Files.deleteIfExists(file.temp);
+            }
+        }
+    }
+
+    @Override
+    public Set<String> listIds() throws IOException {
+        if (!Files.isDirectory(this.directory)) {
+            return ImmutableSet.of();
+        }
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> file.getFileName().toString())
+                    .filter(name -> !name.endsWith(TEMP_SUFFIX))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
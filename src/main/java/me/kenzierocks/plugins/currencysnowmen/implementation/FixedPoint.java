@@ -0,0 +1,142 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+
+import me.kenzierocks.plugins.currencysnowmen.ExtendedCurrency;
+import me.kenzierocks.plugins.currencysnowmen.implementation.Transactionals.TRData;
+
+/**
+ * The scaled {@code long} form of balances in a currency that
+ * {@linkplain ExtendedCurrency#usesFixedPointStorage() uses fixed-point
+ * storage}: a balance is held as a count of the currency's smallest unit.
+ *
+ * <p>
+ * {@link Long#MIN_VALUE} is never a valid balance. It is returned for amounts
+ * that can't be represented, and sums that overflow saturate to one end of
+ * the range so that they always fail the limit checks.
+ * </p>
+ */
+final class FixedPoint {
+
+    static final long UNREPRESENTABLE = Long.MIN_VALUE;
+
+    static FixedPoint of(ExtendedCurrency currency) {
+        return currency.usesFixedPointStorage() ? new FixedPoint(currency)
+                : null;
+    }
+
+    /**
+     * Adds {@code a} and {@code b}, saturating on overflow.
+     */
+    static long add(long a, long b) {
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            return b < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return sum;
+    }
+
+    private final int scale;
+    private final long min;
+    private final long max;
+    private final long defaultBalance;
+    private final boolean accumulatesDeposits;
+
+    private FixedPoint(ExtendedCurrency currency) {
+        this.scale = currency.getDefaultFractionDigits();
+        this.min = currency.supportsNegatives() ? Long.MIN_VALUE + 1 : 0;
+        this.max = currency.getMaximumAccountBalance()
+                .map(max -> max.movePointRight(this.scale)
+                        .setScale(0, RoundingMode.FLOOR)
+                        .min(BigDecimal.valueOf(Long.MAX_VALUE - 1))
+                        .longValue())
+                .orElse(Long.MAX_VALUE - 1);
+        this.defaultBalance = toUnits(currency.getDefaultBalance());
+        // a deposit can only fail against a maximum
+        this.accumulatesDeposits = currency.accumulatesDeposits()
+                && !currency.getMaximumAccountBalance().isPresent();
+    }
+
+    /**
+     * The number of units in {@code amount}, or {@link #UNREPRESENTABLE} if
+     * it has more fraction digits than this currency or is too large.
+     */
+    long toUnits(BigDecimal amount) {
+        try {
+            return amount.movePointRight(this.scale).longValueExact();
+        } catch (ArithmeticException e) {
+            return UNREPRESENTABLE;
+        }
+    }
+
+    /**
+     * The amount {@code units} stand for, without trailing fraction zeros,
+     * so whole amounts come back with the scale of 0 they had before being
+     * stored in units.
+     */
+    BigDecimal toDecimal(long units) {
+        int scale = this.scale;
+        while (scale > 0 && units % 10 == 0) {
+            units /= 10;
+            scale--;
+        }
+        return BigDecimal.valueOf(units, scale);
+    }
+
+    long getDefaultBalance() {
+        return this.defaultBalance;
+    }
+
+    /**
+     * Whether deposits may be collected and folded into balances later.
+     */
+    boolean accumulatesDeposits() {
+        return this.accumulatesDeposits;
+    }
+
+    /**
+     * The unit version of {@link CSAccount}'s limit check.
+     */
+    TransactionResult checkLimits(TRData data, long newBalance) {
+        return checkLimits(data, newBalance, newBalance);
+    }
+
+    TransactionResult checkLimits(TRData data, long newBalance,
+            long otherNewBalance) {
+        if (newBalance < this.min || otherNewBalance < this.min) {
+            return Transactionals.failNoFunds(data);
+        }
+        if (newBalance > this.max || otherNewBalance > this.max) {
+            return Transactionals.failMaxSize(data);
+        }
+        return Transactionals.success(data);
+    }
+
+}
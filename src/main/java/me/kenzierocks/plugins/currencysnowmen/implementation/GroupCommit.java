@@ -0,0 +1,207 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Makes saves durable in groups. Each save hands over the work that makes
+ * it durable, usually an fsync, and waits. The first waiting thread becomes
+ * the leader: it waits a short window for others to join, then runs the
+ * work of everyone who joined, each distinct piece of work only once, and
+ * syncs each affected directory once. Many saves then share one directory
+ * sync, or one sync of a shared file, instead of paying for their own.
+ */
+final class GroupCommit {
+
+    /**
+     * Work that may fail with an {@link IOException}.
+     */
+    @FunctionalInterface
+    interface Action {
+
+        void run() throws IOException;
+
+    }
+
+    private static final class Pending {
+
+        private final Action action;
+        private final Path directory;
+        private IOException failure;
+        private boolean done;
+
+        private Pending(Action action, Path directory) {
+            this.action = action;
+            this.directory = directory;
+        }
+
+    }
+
+    private final boolean durable;
+    private final long windowNanos;
+    private final Object lock = new Object();
+    private List<Pending> queue = new ArrayList<>();
+    private boolean leading;
+
+    /**
+     * @param durable - If false, nothing is synced and actions run right
+     *        away
+     * @param windowMillis - How long a leader waits for others to join
+     */
+    GroupCommit(boolean durable, long windowMillis) {
+        this.durable = durable;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * If false, stores should skip their fsyncs.
+     */
+    boolean isDurable() {
+        return this.durable;
+    }
+
+    /**
+     * Runs {@code action} as part of a group, then syncs {@code directory}
+     * if it isn't {@code null}, and returns once both are done. Passing the
+     * same action object from several threads runs it once for all of them.
+     */
+    void commit(Action action, Path directory) throws IOException {
+        if (!this.durable) {
+            action.run();
+            return;
+        }
+        Pending mine = new Pending(action, directory);
+        boolean interrupted = false;
+        List<Pending> group;
+        synchronized (this.lock) {
+            this.queue.add(mine);
+            while (this.leading && !mine.done) {
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException e) {
+                    // the save is already under way, finish it first
+                    interrupted = true;
+                }
+            }
+            if (!mine.done) {
+                this.leading = true;
+            }
+        }
+        if (!mine.done) {
+            if (this.windowNanos > 0) {
+                LockSupport.parkNanos(this.windowNanos);
+            }
+            synchronized (this.lock) {
+                group = this.queue;
+                this.queue = new ArrayList<>();
+            }
+            Throwable failure = null;
+            try {
+                run(group);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+                throw e;
+            } finally {
+                // always hand over, or every later save waits forever
+                synchronized (this.lock) {
+                    for (Pending pending : group) {
+                        if (failure != null && pending.failure == null) {
+                            pending.failure =
+                                    new IOException("group failed", failure);
+                        }
+                        pending.done = true;
+                    }
+                    this.leading = false;
+                    this.lock.notifyAll();
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (mine.failure != null) {
+            throw new IOException("save failed", mine.failure);
+        }
+    }
+
+    private static void run(List<Pending> group) {
+        Map<Action, IOException> actions = new IdentityHashMap<>();
+        Map<Path, IOException> directories = new LinkedHashMap<>();
+        for (Pending pending : group) {
+            if (!actions.containsKey(pending.action)) {
+                actions.put(pending.action, run(pending.action));
+            }
+            pending.failure = actions.get(pending.action);
+            if (pending.directory != null) {
+                directories.put(pending.directory, null);
+            }
+        }
+        for (Map.Entry<Path, IOException> entry : directories.entrySet()) {
+            entry.setValue(run(() -> syncDirectory(entry.getKey())));
+        }
+        for (Pending pending : group) {
+            if (pending.failure == null && pending.directory != null) {
+                pending.failure = directories.get(pending.directory);
+            }
+        }
+    }
+
+    private static IOException run(Action action) {
+        try {
+            action.run();
+            return null;
+        } catch (IOException e) {
+            return e;
+        } catch (RuntimeException e) {
+            return new IOException(e);
+        }
+    }
+
+    private static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms can't open directories; renames are as durable
+            // as they get there
+            return;
+        }
+        try (FileChannel dir = channel) {
+            dir.force(true);
+        }
+    }
+
+}
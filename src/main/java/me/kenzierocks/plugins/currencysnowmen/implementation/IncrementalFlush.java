@@ -0,0 +1,95 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.spongepowered.api.scheduler.Task;
+
+/**
+ * Saves and unloads a list of accounts a few at a time, once per tick, so
+ * that a big flush doesn't stall the server. Each run stops once it has
+ * used up its time budget; at least one account is flushed per run so the
+ * flush always finishes.
+ */
+final class IncrementalFlush implements Consumer<Task> {
+
+    private static final long REPORT_INTERVAL_NANOS =
+            TimeUnit.SECONDS.toNanos(1);
+
+    private final List<CSAccount> accounts;
+    private final long budgetNanos;
+    private final Consumer<String> progress;
+    private final Runnable onDone;
+    private final long start = System.nanoTime();
+    private long lastReport = this.start;
+    private int next;
+    private int written;
+
+    IncrementalFlush(List<CSAccount> accounts, long budgetMillis,
+            Consumer<String> progress, Runnable onDone) {
+        this.accounts = accounts;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.progress = progress;
+        this.onDone = onDone;
+    }
+
+    @Override
+    public void accept(Task task) {
+        long runStart = System.nanoTime();
+        long now;
+        do {
+            if (this.next == this.accounts.size()) {
+                finish(task);
+                return;
+            }
+            CSAccount account = this.accounts.get(this.next++);
+            if (account.isDirty()) {
+                this.written++;
+            }
+            account.save();
+            CSEconomyService.INSTANCE.removeAccount(account.getIdentifier());
+            now = System.nanoTime();
+        } while (now - runStart < this.budgetNanos);
+        if (now - this.lastReport >= REPORT_INTERVAL_NANOS) {
+            this.lastReport = now;
+            this.progress.accept("Flushed " + this.next + " of "
+                    + this.accounts.size() + " accounts...");
+        }
+    }
+
+    private void finish(Task task) {
+        task.cancel();
+        this.onDone.run();
+        this.progress.accept("Flushed " + this.accounts.size()
+                + " accounts, " + this.written + " had changes to write, in "
+                + TimeUnit.NANOSECONDS
+                        .toMillis(System.nanoTime() - this.start)
+                + "ms. All data will be loaded from disk.");
+    }
+
+}
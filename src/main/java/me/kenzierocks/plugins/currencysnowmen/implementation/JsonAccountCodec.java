@@ -0,0 +1,104 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.Table;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Reads and writes account balance tables in the JSON format used by the
+ * {@code accounts} directory.
+ */
+final class JsonAccountCodec implements AccountCodec {
+
+    public static final JsonAccountCodec INSTANCE = new JsonAccountCodec();
+
+    private JsonAccountCodec() {
+    }
+
+    @Override
+    public byte[] encode(Table<Currency, Set<Context>, BigDecimal> data)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (
+                Writer writer =
+                        new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+                JsonWriter json = new JsonWriter(writer)) {
+            // escape the same characters Gson did
+            json.setHtmlSafe(true);
+            DataMapAdapter.INSTANCE.write(json, data);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void decode(ByteBuffer data,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        decode(data, null, target);
+    }
+
+    @Override
+    public void decode(ByteBuffer data, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        if (!data.hasRemaining()) {
+            return;
+        }
+        ByteArrayInputStream in;
+        if (data.hasArray()) {
+            in = new ByteArrayInputStream(data.array(),
+                    data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            in = new ByteArrayInputStream(bytes);
+        }
+        try (
+                Reader reader =
+                        new InputStreamReader(in, StandardCharsets.UTF_8);
+                JsonReader json = new JsonReader(reader)) {
+            DataMapAdapter.INSTANCE.read(json, currency, target);
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in power-of-two buckets of nanoseconds. Recording is a
+ * couple of uncontended adds; percentiles are only as exact as the bucket
+ * they fall in.
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    /**
+     * The exclusive upper bound, in nanoseconds, of bucket {@code i}.
+     */
+    static long upperBound(int i) {
+        return i >= BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        // bucket i holds [2^(i-1), 2^i), bucket 0 holds 0
+        this.buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        this.sum.add(value);
+    }
+
+    long[] getCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+        }
+        return counts;
+    }
+
+    long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * The upper bound of the bucket holding the {@code quantile} of
+     * {@code counts}, or 0 if nothing was recorded.
+     */
+    static long percentile(long[] counts, double quantile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Every account ranked by balance, for each currency and set of contexts.
+ * Accounts report their balances as they are loaded and changed, so queries
+ * never load accounts and take O(log n) time plus the size of the result.
+ * Reports are queued and sorted in when a ranking is next queried, so
+ * transactions never wait for a ranking. Accounts that have never held a
+ * currency in some contexts are not ranked there.
+ *
+ * <p>
+ * The rankings are written to a file on shutdown and read back on startup.
+ * The file is deleted once read, so after a crash the rankings are rebuilt
+ * from the stored accounts instead of trusting an outdated copy.
+ * </p>
+ */
+public final class Leaderboard {
+
+    private static final int MAGIC = 0x43534C42; // CSLB
+    private static final int VERSION = 1;
+
+    /**
+     * One account's place in a ranking.
+     */
+    public static final class Entry {
+
+        private final int rank;
+        private final String accountId;
+        private final BigDecimal balance;
+
+        Entry(int rank, String accountId, BigDecimal balance) {
+            this.rank = rank;
+            this.accountId = accountId;
+            this.balance = balance;
+        }
+
+        /**
+         * The place of the account, starting from 1 for the richest.
+         */
+        public int getRank() {
+            return this.rank;
+        }
+
+        public String getAccountId() {
+            return this.accountId;
+        }
+
+        public BigDecimal getBalance() {
+            return this.balance;
+        }
+
+    }
+
+    private final ConcurrentMap<Currency, ConcurrentMap<ContextSet, Ranking>> rankings =
+            new ConcurrentHashMap<>();
+
+    Leaderboard() {
+    }
+
+    private Ranking getRanking(Currency currency, Set<Context> contexts) {
+        Map<ContextSet, Ranking> byContexts = this.rankings.get(currency);
+        return byContexts == null ? null
+                : byContexts.get(ContextSet.of(contexts));
+    }
+
+    private Ranking getOrCreateRanking(Currency currency,
+            ContextSet contexts) {
+        ConcurrentMap<ContextSet, Ranking> byContexts =
+                this.rankings.get(currency);
+        if (byContexts == null) {
+            byContexts = this.rankings.computeIfAbsent(currency,
+                    k -> new ConcurrentHashMap<>());
+        }
+        Ranking ranking = byContexts.get(contexts);
+        if (ranking == null) {
+            ranking = byContexts.computeIfAbsent(contexts, k -> new Ranking());
+        }
+        return ranking;
+    }
+
+    void update(String accountId, Currency currency, ContextSet contexts,
+            BigDecimal balance) {
+        getOrCreateRanking(currency, contexts).update(accountId, balance);
+    }
+
+    /**
+     * Ranks an account that isn't ranked yet, keeping the existing entry
+     * otherwise.
+     */
+    void offer(String accountId, Currency currency, ContextSet contexts,
+            BigDecimal balance) {
+        getOrCreateRanking(currency, contexts).offer(accountId, balance);
+    }
+
+    /**
+     * The {@code count} richest accounts.
+     */
+    public List<Entry> getTop(Currency currency, Set<Context> contexts,
+            int count) {
+        return getRange(currency, contexts, 1, count);
+    }
+
+    /**
+     * Up to {@code count} accounts, starting at rank {@code fromRank}.
+     */
+    public List<Entry> getRange(Currency currency, Set<Context> contexts,
+            int fromRank, int count) {
+        checkArgument(fromRank >= 1, "ranks start at 1");
+        checkArgument(count >= 0, "negative count");
+        Ranking ranking = getRanking(currency, contexts);
+        return ranking == null ? ImmutableList.of()
+                : ranking.range(fromRank, count);
+    }
+
+    /**
+     * The rank and balance of one account, if it is ranked.
+     */
+    public Optional<Entry> getEntry(Currency currency, Set<Context> contexts,
+            String accountId) {
+        Ranking ranking = getRanking(currency, contexts);
+        return Optional.ofNullable(
+                ranking == null ? null : ranking.entryOf(accountId));
+    }
+
+    /**
+     * The number of ranked accounts.
+     */
+    public int size(Currency currency, Set<Context> contexts) {
+        Ranking ranking = getRanking(currency, contexts);
+        return ranking == null ? 0 : ranking.size();
+    }
+
+    /**
+     * Ranks every account in {@code store} that isn't ranked yet. Only reads
+     * the store, so it can run while accounts are in use.
+     */
+    void rebuild(AccountStore store) throws IOException {
+        for (String id : store.listIds()) {
+            Table<Currency, Set<Context>, BigDecimal> data =
+                    HashBasedTable.create();
+            try {
+                store.read(id, null, data);
+                new AccountJournal(id).read(data);
+            } catch (IOException e) {
+                CSPlugin.getInstance().getLogger()
+                        .warn("couldn't rank acc " + id, e);
+                continue;
+            }
+            for (Table.Cell<Currency, Set<Context>, BigDecimal> cell : data
+                    .cellSet()) {
+                offer(id, cell.getRowKey(), ContextSet.of(cell.getColumnKey()),
+                        cell.getValue());
+            }
+        }
+    }
+
+    void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(
+                                Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (Map.Entry<Currency, ConcurrentMap<ContextSet,
+                    Ranking>> byCurrency : this.rankings.entrySet()) {
+                String currencyId =
+                        CSEconomyService.getCurrencyId(byCurrency.getKey());
+                for (Map.Entry<ContextSet, Ranking> byContexts : byCurrency
+                        .getValue().entrySet()) {
+                    // copied first so accounts aren't held up by the disk
+                    List<Map.Entry<String, BigDecimal>> entries =
+                            new ArrayList<>();
+                    byContexts.getValue().forEach((id, balance) -> entries
+                            .add(Maps.immutableEntry(id, balance)));
+                    out.writeBoolean(true);
+                    out.writeUTF(currencyId);
+                    out.writeShort(byContexts.getKey().size());
+                    for (Context context : byContexts.getKey()) {
+                        out.writeUTF(context.getKey());
+                        out.writeUTF(context.getValue());
+                    }
+                    out.writeInt(entries.size());
+                    for (Map.Entry<String, BigDecimal> entry : entries) {
+                        out.writeUTF(entry.getKey());
+                        byte[] unscaled =
+                                entry.getValue().unscaledValue().toByteArray();
+                        out.writeInt(entry.getValue().scale());
+                        out.writeShort(unscaled.length);
+                        out.write(unscaled);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads rankings written by {@link #save} and deletes the file. Accounts
+     * that are already ranked keep their entry.
+     *
+     * @return False if there was no file
+     */
+    boolean load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a leaderboard file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(
+                        "unsupported leaderboard version " + version);
+            }
+            while (in.readBoolean()) {
+                String currencyId = in.readUTF();
+                int contextCount = in.readUnsignedShort();
+                ImmutableSet.Builder<Context> contexts = ImmutableSet.builder();
+                for (int i = 0; i < contextCount; i++) {
+                    contexts.add(new Context(in.readUTF(), in.readUTF()));
+                }
+                Currency currency = CSEconomyService.INSTANCE
+                        .getCurrencyByIdentifier(currencyId);
+                Ranking ranking = currency == null ? null
+                        : getOrCreateRanking(currency,
+                                ContextSet.of(contexts.build()));
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String id = in.readUTF();
+                    int scale = in.readInt();
+                    byte[] unscaled = new byte[in.readUnsignedShort()];
+                    in.readFully(unscaled);
+                    if (ranking != null) {
+                        ranking.offer(id, new BigDecimal(
+                                new BigInteger(unscaled), scale));
+                    }
+                }
+            }
+        }
+        Files.delete(file);
+        return true;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+
+/**
+ * Keeps accounts in memory only; everything is lost when the server stops.
+ * Meant for benchmarks and tests, where disk speed would get in the way.
+ */
+final class MemoryAccountStore implements AccountStore {
+
+    private final ConcurrentMap<String, ImmutableTable<Currency, Set<Context>,
+            BigDecimal>> accounts = new ConcurrentHashMap<>();
+
+    @Override
+    public void load(String id,
+            Table<Currency, Set<Context>, BigDecimal> target) {
+        read(id, null, target);
+    }
+
+    @Override
+    public void read(String id, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target) {
+        Table<Currency, Set<Context>, BigDecimal> data = this.accounts.get(id);
+        if (data == null) {
+            return;
+        }
+        if (currency == null) {
+            target.putAll(data);
+        } else {
+            target.row(currency).putAll(data.row(currency));
+        }
+    }
+
+    @Override
+    public void save(String id,
+            Table<Currency, Set<Context>, BigDecimal> data) {
+        this.accounts.put(id, ImmutableTable.copyOf(data));
+    }
+
+    @Override
+    public Set<String> listIds() {
+        return ImmutableSet.copyOf(this.accounts.keySet());
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.service.economy.transaction.ResultType;
+import org.spongepowered.api.service.economy.transaction.TransactionType;
+
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Counters and latency histograms for transactions, event posting and
+ * persistence, cheap enough to record on every call. They are shown by
+ * {@code /cs stats} and can be written periodically in the Prometheus text
+ * format for monitoring to scrape.
+ */
+public final class Metrics {
+
+    // rough sizes of an account and of one balance, only good for an
+    // order-of-magnitude estimate
+    private static final long ACCOUNT_BYTES = 512;
+    private static final long BALANCE_BYTES = 160;
+    private static final String PREFIX = "currencysnowmen_";
+
+    private final ConcurrentMap<TransactionType, LongAdder[]> transactions =
+            new ConcurrentHashMap<>();
+    private final LatencyHistogram eventPost = new LatencyHistogram();
+    private final LatencyHistogram save = new LatencyHistogram();
+    private final LatencyHistogram load = new LatencyHistogram();
+    private Task dumpTask;
+
+    Metrics() {
+    }
+
+    void recordTransaction(TransactionType type, ResultType result) {
+        LongAdder[] counters = this.transactions.get(type);
+        if (counters == null) {
+            counters = this.transactions.computeIfAbsent(type, t -> {
+                LongAdder[] created =
+                        new LongAdder[ResultType.values().length];
+                for (int i = 0; i < created.length; i++) {
+                    created[i] = new LongAdder();
+                }
+                return created;
+            });
+        }
+        counters[result.ordinal()].increment();
+    }
+
+    void recordEventPost(long nanos) {
+        this.eventPost.record(nanos);
+    }
+
+    void recordSave(long nanos) {
+        this.save.record(nanos);
+    }
+
+    void recordLoad(long nanos) {
+        this.load.record(nanos);
+    }
+
+    /**
+     * Starts writing the metrics to {@code file} every
+     * {@code intervalMillis}.
+     */
+    public synchronized void start(Object plugin, long intervalMillis,
+            Path file) {
+        if (this.dumpTask != null) {
+            this.dumpTask.cancel();
+        }
+        this.dumpTask = Sponge.getScheduler().createTaskBuilder().async()
+                .name("Currency☃ metrics")
+                .interval(intervalMillis, TimeUnit.MILLISECONDS)
+                .execute(() -> {
+                    try {
+                        writeTo(file);
+                    } catch (IOException e) {
+                        CSPlugin.getInstance().getLogger()
+                                .warn("couldn't write metrics to " + file, e);
+                    }
+                }).submit(plugin);
+    }
+
+    public synchronized void stop() {
+        if (this.dumpTask != null) {
+            this.dumpTask.cancel();
+            this.dumpTask = null;
+        }
+    }
+
+    /**
+     * A short human-readable summary.
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<TransactionType, LongAdder[]> entry : this.transactions
+                .entrySet()) {
+            StringBuilder line = new StringBuilder(entry.getKey().getName())
+                    .append(':');
+            LongAdder[] counters = entry.getValue();
+            for (ResultType result : ResultType.values()) {
+                long count = counters[result.ordinal()].sum();
+                if (count > 0) {
+                    line.append(' ')
+                            .append(result.name().toLowerCase(Locale.ROOT))
+                            .append('=').append(count);
+                }
+            }
+            lines.add(line.toString());
+        }
+        lines.add(describe("Event post", this.eventPost));
+        lines.add(describe("Save", this.save));
+        lines.add(describe("Load", this.load));
+        long[] sizes = countAccounts();
+        Runtime runtime = Runtime.getRuntime();
+        lines.add("Accounts: " + sizes[0] + " loaded, " + sizes[1]
+                + " balances, ~" + estimateBytes(sizes) / 1024
+                + " KiB; heap " + (runtime.totalMemory() - runtime.freeMemory())
+                        / (1024 * 1024)
+                + " of " + runtime.maxMemory() / (1024 * 1024) + " MiB used");
+        lines.add("Cache: " + CSEconomyService.INSTANCE.getCacheStats());
+        lines.add("Pending writes: "
+                + CSEconomyService.INSTANCE.getFlusher().getPendingCount());
+        lines.add("Dropped events: "
+                + CSEconomyService.INSTANCE.getEvents().getDroppedEvents());
+        return lines;
+    }
+
+    private static String describe(String name, LatencyHistogram histogram) {
+        long[] counts = histogram.getCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return name + ": none";
+        }
+        return name + ": " + total + " calls, mean "
+                + histogram.getSum() / total / 1000 + "µs, p50 < "
+                + LatencyHistogram.percentile(counts, 0.5) / 1000
+                + "µs, p99 < "
+                + LatencyHistogram.percentile(counts, 0.99) / 1000 + "µs";
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format. The file is replaced
+     * in one step, so a scraper never sees half of it.
+     */
+    public void writeTo(Path file) throws IOException {
+        StringBuilder out = new StringBuilder();
+        String name = PREFIX + "transactions_total";
+        out.append("# TYPE ").append(name).append(" counter\n");
+        this.transactions.forEach((type, counters) -> {
+            for (ResultType result : ResultType.values()) {
+                out.append(name).append("{type=\"")
+                        .append(escape(type.getName())).append("\",result=\"")
+                        .append(result.name().toLowerCase(Locale.ROOT))
+                        .append("\"} ")
+                        .append(counters[result.ordinal()].sum()).append('\n');
+            }
+        });
+        histogram(out, "event_post_seconds", this.eventPost);
+        histogram(out, "save_seconds", this.save);
+        histogram(out, "load_seconds", this.load);
+        long[] sizes = countAccounts();
+        gauge(out, "accounts", sizes[0]);
+        gauge(out, "balances", sizes[1]);
+        gauge(out, "estimated_bytes", estimateBytes(sizes));
+        gauge(out, "pending_writes",
+                CSEconomyService.INSTANCE.getFlusher().getPendingCount());
+        CacheStats cache = CSEconomyService.INSTANCE.getCacheStats();
+        counter(out, "cache_hits_total", cache.getHits());
+        counter(out, "cache_misses_total", cache.getMisses());
+        counter(out, "cache_evictions_total", cache.getEvictions());
+        counter(out, "events_dropped_total",
+                CSEconomyService.INSTANCE.getEvents().getDroppedEvents());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, out.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void histogram(StringBuilder out, String name,
+            LatencyHistogram histogram) {
+        String fullName = PREFIX + name;
+        long[] counts = histogram.getCounts();
+        int last = counts.length - 1;
+        while (last > 0 && counts[last] == 0) {
+            last--;
+        }
+        out.append("# TYPE ").append(fullName).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i <= last; i++) {
+            cumulative += counts[i];
+            out.append(fullName).append("_bucket{le=\"")
+                    .append(LatencyHistogram.upperBound(i) / 1e9).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        for (int i = last + 1; i < counts.length; i++) {
+            cumulative += counts[i];
+        }
+        out.append(fullName).append("_bucket{le=\"+Inf\"} ").append(cumulative)
+                .append('\n');
+        out.append(fullName).append("_sum ").append(histogram.getSum() / 1e9)
+                .append('\n');
+        out.append(fullName).append("_count ").append(cumulative)
+                .append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n")
+                .append(PREFIX).append(name).append(' ').append(value)
+                .append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(PREFIX).append(name).append(" counter\n")
+                .append(PREFIX).append(name).append(' ').append(value)
+                .append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * The number of loaded accounts and of balances they hold.
+     */
+    private static long[] countAccounts() {
+        long[] sizes = new long[2];
+        CSEconomyService.INSTANCE.getAccounts().forEach(account -> {
+            sizes[0]++;
+            sizes[1] += ((CSAccount) account).getBalanceCount();
+        });
+        return sizes;
+    }
+
+    private static long estimateBytes(long[] sizes) {
+        return sizes[0] * ACCOUNT_BYTES + sizes[1] * BALANCE_BYTES;
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Units deposited into one balance that haven't been added to it yet. They
+ * are spread over a few counters, picked by thread, so that threads
+ * depositing at the same time don't contend on one value.
+ */
+final class PendingDeposits {
+
+    private static final int STRIPES = Math.min(64,
+            Integer.highestOneBit(
+                    Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+    // a cache line of longs between counters
+    private static final int SPACING = 8;
+    // low enough that all the counters together never overflow
+    private static final long STRIPE_LIMIT = Long.MAX_VALUE / STRIPES;
+
+    private final AtomicLongArray units =
+            new AtomicLongArray(STRIPES * SPACING);
+
+    /**
+     * Adds {@code delta} units, which must be positive. Returns false if
+     * they don't fit, in which case the deposit has to be made directly.
+     */
+    boolean add(long delta) {
+        int index = ((int) Thread.currentThread().getId() & (STRIPES - 1))
+                * SPACING;
+        long current;
+        do {
+            current = this.units.get(index);
+            if (current > STRIPE_LIMIT - delta) {
+                return false;
+            }
+        } while (!this.units.compareAndSet(index, current, current + delta));
+        return true;
+    }
+
+    /**
+     * Takes every pending unit, leaving none.
+     */
+    long drain() {
+        long sum = 0;
+        for (int i = 0; i < this.units.length(); i += SPACING) {
+            if (this.units.get(i) != 0) {
+                sum += this.units.getAndSet(i, 0);
+            }
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * The accounts holding one currency in one set of contexts, ordered by
+ * balance, richest first, with ties broken by account id. Kept as a treap
+ * whose nodes count their subtree, so changing a balance, finding the n-th
+ * account and finding an account's rank all take O(log n) time.
+ *
+ * <p>
+ * Balance changes are only queued, without locking, and applied in one
+ * batch when the ranking is next read. An account that changes many times
+ * in between is moved once, to its latest balance.
+ * </p>
+ */
+final class Ranking {
+
+    private static final class Node {
+
+        private final String id;
+        private final BigDecimal balance;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node left;
+        private Node right;
+        private int size = 1;
+
+        private Node(String id, BigDecimal balance) {
+            this.id = id;
+            this.balance = balance;
+        }
+
+        private void resize() {
+            this.size = 1 + size(this.left) + size(this.right);
+        }
+
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int compare(Node a, Node b) {
+        int byBalance = b.balance.compareTo(a.balance);
+        return byBalance != 0 ? byBalance : a.id.compareTo(b.id);
+    }
+
+    /**
+     * Splits {@code node}'s subtree into the nodes before {@code key}, which
+     * become its left subtree, and the ones after, which become its right.
+     */
+    private static void split(Node node, Node key) {
+        if (node == null) {
+            key.left = null;
+            key.right = null;
+        } else if (compare(node, key) < 0) {
+            split(node.right, key);
+            node.right = key.left;
+            node.resize();
+            key.left = node;
+        } else {
+            split(node.left, key);
+            node.left = key.right;
+            node.resize();
+            key.right = node;
+        }
+    }
+
+    /**
+     * Joins two subtrees where every node of {@code a} comes before every
+     * node of {@code b}.
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.resize();
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.resize();
+        return b;
+    }
+
+    private static Node insert(Node node, Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (added.priority > node.priority) {
+            split(node, added);
+            added.resize();
+            return added;
+        }
+        if (compare(added, node) < 0) {
+            node.left = insert(node.left, added);
+        } else {
+            node.right = insert(node.right, added);
+        }
+        node.resize();
+        return node;
+    }
+
+    private static Node delete(Node node, Node removed) {
+        if (node == removed) {
+            return merge(node.left, node.right);
+        }
+        if (compare(removed, node) < 0) {
+            node.left = delete(node.left, removed);
+        } else {
+            node.right = delete(node.right, removed);
+        }
+        node.resize();
+        return node;
+    }
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private Node root;
+    // the latest balance of each account changed since the last read
+    private final ConcurrentMap<String, BigDecimal> pending =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Sets the balance of {@code id}, adding it if it isn't ranked yet. The
+     * change shows up when the ranking is next read.
+     */
+    void update(String id, BigDecimal balance) {
+        this.pending.put(id, balance);
+    }
+
+    /**
+     * Applies the queued changes. Must hold the monitor.
+     */
+    private void applyPending() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        for (String id : this.pending.keySet()) {
+            // a change queued after this is left for the next read
+            BigDecimal balance = this.pending.remove(id);
+            if (balance != null) {
+                set(id, balance);
+            }
+        }
+    }
+
+    private void set(String id, BigDecimal balance) {
+        Node old = this.nodes.get(id);
+        if (old != null) {
+            if (old.balance.compareTo(balance) == 0) {
+                return;
+            }
+            this.root = delete(this.root, old);
+        }
+        add(id, balance);
+    }
+
+    /**
+     * Adds {@code id} unless it is already ranked, in which case the ranked
+     * balance is assumed to be newer.
+     */
+    synchronized void offer(String id, BigDecimal balance) {
+        applyPending();
+        if (!this.nodes.containsKey(id)) {
+            add(id, balance);
+        }
+    }
+
+    private void add(String id, BigDecimal balance) {
+        Node node = new Node(id, balance);
+        this.nodes.put(id, node);
+        this.root = insert(this.root, node);
+    }
+
+    synchronized int size() {
+        applyPending();
+        return this.nodes.size();
+    }
+
+    /**
+     * The entry of {@code id}, or {@code null} if it isn't ranked.
+     */
+    synchronized Leaderboard.Entry entryOf(String id) {
+        applyPending();
+        Node target = this.nodes.get(id);
+        if (target == null) {
+            return null;
+        }
+        int before = 0;
+        Node node = this.root;
+        while (node != target) {
+            if (compare(target, node) < 0) {
+                node = node.left;
+            } else {
+                before += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return new Leaderboard.Entry(before + size(node.left) + 1, id,
+                node.balance);
+    }
+
+    /**
+     * Up to {@code count} accounts, starting at rank {@code from}.
+     */
+    synchronized List<Leaderboard.Entry> range(int from, int count) {
+        applyPending();
+        List<Leaderboard.Entry> entries = new ArrayList<>(
+                Math.max(0, Math.min(count, size(this.root) - from + 1)));
+        // the nodes still to visit after the current one, nearest on top
+        Deque<Node> path = new ArrayDeque<>();
+        int skip = from - 1;
+        Node node = this.root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (skip < leftSize) {
+                path.push(node);
+                node = node.left;
+            } else if (skip == leftSize) {
+                path.push(node);
+                break;
+            } else {
+                skip -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        while (entries.size() < count && !path.isEmpty()) {
+            Node next = path.pop();
+            entries.add(new Leaderboard.Entry(from + entries.size(), next.id,
+                    next.balance));
+            for (Node n = next.right; n != null; n = n.left) {
+                path.push(n);
+            }
+        }
+        return entries;
+    }
+
+    synchronized void forEach(BiConsumer<String, BigDecimal> consumer) {
+        applyPending();
+        this.nodes.forEach((id, node) -> consumer.accept(id, node.balance));
+    }
+
+}
@@ -0,0 +1,528 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+
+import me.kenzierocks.plugins.currencysnowmen.CSPlugin;
+
+/**
+ * Packs every account into a few large memory-mapped segment files instead
+ * of one file per account. An in-memory index maps each account id to its
+ * slot, so loads and saves never open a file.
+ *
+ * <p>
+ * A segment starts with a magic number and version, followed by slots:
+ * </p>
+ *
+ * <pre>
+ * int state | int slot size | int data length | long generation | int crc
+ * short id length | id (UTF-8) | data ... padding up to slot size
+ * </pre>
+ *
+ * <p>
+ * Saves never overwrite an account's live slot. The data is written to a
+ * free or new slot, and the old one is only freed once the new one has been
+ * forced to disk, so a crash leaves at least one intact copy. The generation
+ * counter picks the newer of two live slots for the same account, and the
+ * CRC of the id and data rejects a slot that was only partly written. A
+ * state of zero marks the unused tail of a segment.
+ * </p>
+ *
+ * <p>
+ * Saves wait until their segment has been forced to disk, sharing the force
+ * with other saves made at the same time.
+ * </p>
+ *
+ * <p>
+ * Segments of version 1 have no CRC. They are still read, but nothing new
+ * is written to them; their accounts move to newer segments as they are
+ * saved.
+ * </p>
+ *
+ * <p>
+ * Accounts that are not in the segments yet are read from the fallback
+ * store, so existing per-account files move over as they are saved. Slot
+ * data is written with the configured codec; data written by any codec can
+ * be read.
+ * </p>
+ */
+final class SegmentAccountStore implements AccountStore {
+
+    private static final int MAGIC = 0x43535347; // CSSG
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int V1_SLOT_HEADER_SIZE = 22;
+    private static final int SLOT_HEADER_SIZE = 26;
+    private static final int STATE_LIVE = 1;
+    private static final int STATE_FREE = 2;
+    private static final int INITIAL_SEGMENT_SIZE = 1 << 20;
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+    private static final int SLOT_ALIGNMENT = 64;
+
+    private static final class Segment {
+
+        private final FileChannel channel;
+        private final int version;
+        private MappedByteBuffer buffer;
+        private int end;
+        private GroupCommit.Action sync;
+
+        private Segment(FileChannel channel) throws IOException {
+            this.channel = channel;
+            long size = channel.size();
+            this.buffer = channel.map(MapMode.READ_WRITE, 0,
+                    Math.max(size, INITIAL_SEGMENT_SIZE));
+            if (size < FILE_HEADER_SIZE) {
+                this.buffer.putInt(0, MAGIC).putInt(4, VERSION);
+            } else if (this.buffer.getInt(0) != MAGIC) {
+                throw new IOException("not an account segment");
+            } else if (this.buffer.getInt(4) != VERSION
+                    && this.buffer.getInt(4) != 1) {
+                throw new IOException("unsupported segment version "
+                        + this.buffer.getInt(4));
+            }
+            this.version = this.buffer.getInt(4);
+            this.end = FILE_HEADER_SIZE;
+        }
+
+        private boolean isWritable() {
+            return this.version == VERSION;
+        }
+
+        private int headerSize() {
+            return isWritable() ? SLOT_HEADER_SIZE : V1_SLOT_HEADER_SIZE;
+        }
+
+        private int idLengthAt(int slotOffset) {
+            return slotOffset + headerSize() - 2;
+        }
+
+        private boolean ensureCapacity(int required) throws IOException {
+            if (required <= this.buffer.capacity()) {
+                return true;
+            }
+            if (required > MAX_SEGMENT_SIZE) {
+                return false;
+            }
+            int newSize = this.buffer.capacity();
+            while (newSize < required) {
+                newSize = Math.min(newSize * 2, MAX_SEGMENT_SIZE);
+            }
+            this.buffer.force();
+            this.buffer = this.channel.map(MapMode.READ_WRITE, 0, newSize);
+            return true;
+        }
+
+    }
+
+    private static final class Slot {
+
+        private final Segment segment;
+        private final int offset;
+        private final int size;
+
+        private Slot(Segment segment, int offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        private int idLength() {
+            return this.segment.buffer
+                    .getShort(this.segment.idLengthAt(this.offset));
+        }
+
+        private int dataStart() {
+            return this.offset + this.segment.headerSize() + idLength();
+        }
+
+        private int dataLength() {
+            return this.segment.buffer.getInt(this.offset + 8);
+        }
+
+    }
+
+    private final Path directory;
+    private final AccountCodec codec;
+    private final AccountStore fallback;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Slot> index = new HashMap<>();
+    private final TreeMap<Integer, Deque<Slot>> freeSlots = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final GroupCommit commits;
+    private long generation;
+
+    SegmentAccountStore(Path directory, AccountCodec codec,
+            AccountStore fallback, GroupCommit commits) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.fallback = fallback;
+        this.commits = commits;
+        Files.createDirectories(directory);
+        for (int i = 0;; i++) {
+            Path file = segmentFile(i);
+            if (i > 0 && !Files.exists(file)) {
+                break;
+            }
+            Segment segment = openSegment(file);
+            scan(segment);
+        }
+    }
+
+    private Path segmentFile(int number) {
+        return this.directory.resolve("accounts-" + number + ".seg");
+    }
+
+    private Segment openSegment(Path file) throws IOException {
+        Segment segment = new Segment(FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE));
+        segment.sync = () -> force(segment);
+        this.segments.add(segment);
+        return segment;
+    }
+
+    private void force(Segment segment) {
+        // under the lock, so the buffer isn't swapped for a larger one
+        this.lock.readLock().lock();
+        try {
+            segment.buffer.force();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer buf = segment.buffer;
+        int pos = FILE_HEADER_SIZE;
+        int headerSize = segment.headerSize();
+        while (pos + headerSize <= buf.capacity()) {
+            int state = buf.getInt(pos);
+            int size = buf.getInt(pos + 4);
+            if (state == 0 || size < headerSize
+                    || pos + size > buf.capacity()) {
+                break;
+            }
+            Slot slot = new Slot(segment, pos, size);
+            if (state == STATE_LIVE && !isIntact(slot)) {
+                CSPlugin.getInstance().getLogger().warn("Ignoring a partly "
+                        + "written account slot at " + pos + "; the "
+                        + "account's previous save is used instead");
+                free(slot);
+            } else if (state == STATE_LIVE) {
+                long gen = buf.getLong(pos + 12);
+                this.generation = Math.max(this.generation, gen);
+                String id = readId(slot);
+                Slot old = this.index.get(id);
+                if (old == null || gen > generationOf(old)) {
+                    this.index.put(id, slot);
+                    if (old != null) {
+                        free(old);
+                    }
+                } else {
+                    free(slot);
+                }
+            } else {
+                addFree(slot);
+            }
+            pos += size;
+        }
+        segment.end = pos;
+    }
+
+    /**
+     * Whether the slot's id and data fit in it and match its CRC. Version 1
+     * slots have no CRC, so only their bounds are checked.
+     */
+    private static boolean isIntact(Slot slot) {
+        int idLength = slot.idLength();
+        int length = slot.dataLength();
+        int headerSize = slot.segment.headerSize();
+        if (idLength < 0 || length < 0
+                || (long) headerSize + idLength + length > slot.size) {
+            return false;
+        }
+        if (!slot.segment.isWritable()) {
+            return true;
+        }
+        return slot.segment.buffer.getInt(slot.offset + 20) == crc(
+                slot.segment.buffer, slot.offset + headerSize,
+                idLength + length);
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer range = buffer.duplicate();
+        range.limit(offset + length).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(range);
+        return (int) crc.getValue();
+    }
+
+    private static long generationOf(Slot slot) {
+        return slot.segment.buffer.getLong(slot.offset + 12);
+    }
+
+    private static String readId(Slot slot) {
+        ByteBuffer buf = slot.segment.buffer.duplicate();
+        byte[] id = new byte[slot.idLength()];
+        buf.position(slot.offset + slot.segment.headerSize());
+        buf.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private void free(Slot slot) {
+        slot.segment.buffer.putInt(slot.offset, STATE_FREE);
+        addFree(slot);
+    }
+
+    private void addFree(Slot slot) {
+        if (!slot.segment.isWritable()) {
+            return;
+        }
+        this.freeSlots.computeIfAbsent(slot.size, k -> new ArrayDeque<>())
+                .add(slot);
+    }
+
+    private Slot takeFree(int size) {
+        Entry<Integer, Deque<Slot>> entry = this.freeSlots.ceilingEntry(size);
+        if (entry == null) {
+            return null;
+        }
+        Slot slot = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            this.freeSlots.remove(entry.getKey());
+        }
+        return slot;
+    }
+
+    private Slot allocate(int size) throws IOException {
+        Slot free = takeFree(size);
+        if (free != null) {
+            return free;
+        }
+        Segment last = this.segments.get(this.segments.size() - 1);
+        if (!last.isWritable() || !last.ensureCapacity(last.end + size)) {
+            checkArgument(FILE_HEADER_SIZE + size <= MAX_SEGMENT_SIZE,
+                    "account too large for a segment");
+            last = openSegment(segmentFile(this.segments.size()));
+        }
+        Slot slot = new Slot(last, last.end, size);
+        last.end += size;
+        return slot;
+    }
+
+    @Override
+    public void load(String id,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        if (!readSlot(id, null, target)) {
+            this.fallback.load(id, target);
+        }
+    }
+
+    @Override
+    public void read(String id, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        if (!readSlot(id, currency, target)) {
+            this.fallback.read(id, currency, target);
+        }
+    }
+
+    private boolean readSlot(String id, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        this.lock.readLock().lock();
+        try {
+            Slot slot = this.index.get(id);
+            if (slot == null) {
+                return false;
+            }
+            ByteBuffer buf = slot.segment.buffer.duplicate();
+            int start = slot.dataStart();
+            buf.limit(start + slot.dataLength());
+            buf.position(start);
+            // decoded straight out of the mapping
+            AccountCodecs.decode(buf, currency, target);
+            return true;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(String id, Table<Currency, Set<Context>, BigDecimal> data)
+            throws IOException {
+        saveAll(ImmutableMap.of(id, data));
+    }
+
+    /**
+     * Writes every account, then forces each segment that was written to
+     * once.
+     */
+    @Override
+    public void saveAll(
+            Map<String, Table<Currency, Set<Context>, BigDecimal>> accounts)
+                    throws IOException {
+        Map<String, byte[]> payloads = new LinkedHashMap<>();
+        for (Map.Entry<String, Table<Currency, Set<Context>,
+                BigDecimal>> account : accounts.entrySet()) {
+            payloads.put(account.getKey(),
+                    this.codec.encode(account.getValue()));
+        }
+        Set<Segment> written =
+                Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Slot> moved = new ArrayList<>();
+        boolean grew;
+        this.lock.writeLock().lock();
+        try {
+            int segmentCount = this.segments.size();
+            for (Map.Entry<String, byte[]> entry : payloads.entrySet()) {
+                byte[] payload = entry.getValue();
+                byte[] idBytes =
+                        entry.getKey().getBytes(StandardCharsets.UTF_8);
+                Slot old = this.index.get(entry.getKey());
+                if (old != null) {
+                    moved.add(old);
+                }
+                int size = SLOT_HEADER_SIZE + idBytes.length + payload.length;
+                size = (size + SLOT_ALIGNMENT - 1) & -SLOT_ALIGNMENT;
+                Slot slot = allocate(size);
+                writeSlot(slot, idBytes, payload);
+                this.index.put(entry.getKey(), slot);
+                written.add(slot.segment);
+            }
+            grew = this.segments.size() != segmentCount;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        if (this.commits.isDurable() && !written.isEmpty()) {
+            Path directory = grew ? this.directory : null;
+            if (written.size() == 1) {
+                // the segment's own action, to share it with other saves
+                this.commits.commit(written.iterator().next().sync,
+                        directory);
+            } else {
+                this.commits.commit(() -> {
+                    for (Segment segment : written) {
+                        segment.sync.run();
+                    }
+                }, directory);
+            }
+        }
+        if (!moved.isEmpty()) {
+            // only once the new slots are on disk; until then, a crash
+            // leaves both live and the newer intact generation wins
+            this.lock.writeLock().lock();
+            try {
+                for (Slot old : moved) {
+                    free(old);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public Set<String> listIds() throws IOException {
+        Set<String> ids = new HashSet<>(this.fallback.listIds());
+        this.lock.readLock().lock();
+        try {
+            // the segments share the directory with the per-account files
+            for (int i = 0; i < this.segments.size(); i++) {
+                ids.remove(segmentFile(i).getFileName().toString());
+            }
+            ids.addAll(this.index.keySet());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return ids;
+    }
+
+    private void writeSlot(Slot slot, byte[] id, byte[] payload) {
+        ByteBuffer buf = slot.segment.buffer.duplicate();
+        buf.position(slot.offset + SLOT_HEADER_SIZE);
+        buf.put(id).put(payload);
+        buf.putShort(slot.offset + 24, (short) id.length);
+        buf.putInt(slot.offset + 20, crc(buf, slot.offset + SLOT_HEADER_SIZE,
+                id.length + payload.length));
+        buf.putLong(slot.offset + 12, ++this.generation);
+        buf.putInt(slot.offset + 8, payload.length);
+        buf.putInt(slot.offset + 4, slot.size);
+        // marking the slot live last means a crash leaves it unused
+        buf.putInt(slot.offset, STATE_LIVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            for (Segment segment : this.segments) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            this.segments.clear();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.fallback.close();
+    }
+
+}
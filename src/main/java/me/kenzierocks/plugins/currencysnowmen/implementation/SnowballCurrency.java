@@ -30,6 +30,7 @@ import java.util.Optional;
 
 import org.spongepowered.api.text.Text;
 
+import me.kenzierocks.plugins.currencysnowmen.CurrencyFormatter;
 import me.kenzierocks.plugins.currencysnowmen.ExtendedCurrency;
 
 /**
@@ -41,8 +42,9 @@ public final class SnowballCurrency implements ExtendedCurrency {
     private static final Text DISPLAY_NAME_PLURAL = Text.of("Snowballs");
     private static final Text SYMBOL = Text.of("☃");
     private static final Text NEGATIVE_SYMBOL = Text.of("-☃");
-    private static final DecimalFormat DECIMAL_FORMAT =
-            new DecimalFormat("0.00");
+    private static final CurrencyFormatter FORMATTER =
+            new CurrencyFormatter(SYMBOL, NEGATIVE_SYMBOL,
+                    new DecimalFormat("0.00"));
 
     public static final SnowballCurrency INSTANCE = new SnowballCurrency();
 
@@ -64,23 +66,19 @@ public final class SnowballCurrency implements ExtendedCurrency {
         return SYMBOL;
     }
 
-    private Text format(BigDecimal amount, DecimalFormat format) {
-        return (amount.compareTo(BigDecimal.ZERO) >= 0 ? SYMBOL
-                : NEGATIVE_SYMBOL).toBuilder()
-                        .append(Text.of(format.format(amount.abs()))).build();
+    @Override
+    public CurrencyFormatter getFormatter() {
+        return FORMATTER;
     }
 
     @Override
     public Text format(BigDecimal amount) {
-        return format(amount, DECIMAL_FORMAT);
+        return FORMATTER.format(amount);
     }
 
     @Override
     public Text format(BigDecimal amount, int numFractionDigits) {
-        DecimalFormat df = new DecimalFormat();
-        df.setMaximumFractionDigits(numFractionDigits);
-        df.setMinimumFractionDigits(numFractionDigits);
-        return format(amount, df);
+        return FORMATTER.format(amount, numFractionDigits);
     }
 
     @Override
@@ -113,4 +111,9 @@ public final class SnowballCurrency implements ExtendedCurrency {
         return "snowballs";
     }
 
+    @Override
+    public boolean usesFixedPointStorage() {
+        return true;
+    }
+
 }
@@ -0,0 +1,242 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.service.context.Context;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.sql.SqlService;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+
+/**
+ * Keeps each account as one row of an embedded database, opened through
+ * Sponge's {@link SqlService}. The balances are stored as a single value in
+ * the configured codec's format, so the database only ever looks rows up by
+ * account id. A batch of saves is written as one transaction of batched
+ * upserts.
+ *
+ * <p>
+ * The JDBC drivers aren't bundled with the plugin. Server owners have to
+ * provide the driver of their dialect, unless Sponge already ships it.
+ * </p>
+ */
+final class SqlAccountStore implements AccountStore {
+
+    enum Dialect {
+
+        H2("jdbc:h2:", "com.h2database:h2",
+                "MERGE INTO cs_accounts (id, data) KEY (id) VALUES (?, ?)"),
+        SQLITE("jdbc:sqlite:", "org.xerial:sqlite-jdbc",
+                "INSERT OR REPLACE INTO cs_accounts (id, data) VALUES (?, ?)");
+
+        private final String urlPrefix;
+        // the Maven coordinates of the driver, for the error message
+        private final String driver;
+        private final String upsert;
+
+        Dialect(String urlPrefix, String driver, String upsert) {
+            this.urlPrefix = urlPrefix;
+            this.driver = driver;
+            this.upsert = upsert;
+        }
+
+    }
+
+    private static final String CREATE_TABLE =
+            "CREATE TABLE IF NOT EXISTS cs_accounts ("
+                    + "id VARCHAR(255) PRIMARY KEY, data BLOB NOT NULL)";
+    private static final String SELECT =
+            "SELECT data FROM cs_accounts WHERE id = ?";
+    private static final String SELECT_IDS = "SELECT id FROM cs_accounts";
+
+    /**
+     * Opens, creating it if needed, the database in {@code file}.
+     */
+    static SqlAccountStore open(Path file, Dialect dialect,
+            AccountCodec codec) throws IOException {
+        String url = dialect.urlPrefix + file.toAbsolutePath();
+        try {
+            DataSource dataSource = Sponge.getServiceManager()
+                    .provideUnchecked(SqlService.class).getDataSource(url);
+            return new SqlAccountStore(dataSource, dialect, codec);
+        } catch (SQLException e) {
+            if (!hasDriver(url)) {
+                throw new IOException("no JDBC driver for " + dialect
+                        + " found, add " + dialect.driver
+                        + " to the server to use this store", e);
+            }
+            throw new IOException("couldn't open account database " + file,
+                    e);
+        }
+    }
+
+    private static boolean hasDriver(String url) {
+        try {
+            DriverManager.getDriver(url);
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private final DataSource dataSource;
+    private final Dialect dialect;
+    private final AccountCodec codec;
+
+    private SqlAccountStore(DataSource dataSource, Dialect dialect,
+            AccountCodec codec) throws SQLException {
+        this.dataSource = dataSource;
+        this.dialect = dialect;
+        this.codec = codec;
+        try (
+                Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate(CREATE_TABLE);
+        }
+    }
+
+    private byte[] select(String id) throws IOException {
+        try (
+                Connection connection = this.dataSource.getConnection();
+                PreparedStatement statement =
+                        connection.prepareStatement(SELECT)) {
+            statement.setString(1, id);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getBytes(1) : null;
+            }
+        } catch (SQLException e) {
+            throw new IOException("couldn't load acc " + id, e);
+        }
+    }
+
+    @Override
+    public void load(String id,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        byte[] bytes = select(id);
+        if (bytes == null) {
+            return;
+        }
+        Table<Currency, Set<Context>, BigDecimal> data =
+                HashBasedTable.create();
+        AccountCodec found =
+                AccountCodecs.decode(ByteBuffer.wrap(bytes), data);
+        if (found != this.codec) {
+            save(id, data);
+        }
+        target.putAll(data);
+    }
+
+    @Override
+    public void read(String id, Currency currency,
+            Table<Currency, Set<Context>, BigDecimal> target)
+                    throws IOException {
+        byte[] bytes = select(id);
+        if (bytes != null) {
+            AccountCodecs.decode(ByteBuffer.wrap(bytes), currency, target);
+        }
+    }
+
+    @Override
+    public void save(String id, Table<Currency, Set<Context>, BigDecimal> data)
+            throws IOException {
+        saveAll(ImmutableMap.of(id, data));
+    }
+
+    @Override
+    public void saveAll(
+            Map<String, Table<Currency, Set<Context>, BigDecimal>> accounts)
+                    throws IOException {
+        try (Connection connection = this.dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (
+                    PreparedStatement statement = connection
+                            .prepareStatement(this.dialect.upsert)) {
+                for (Map.Entry<String, Table<Currency, Set<Context>,
+                        BigDecimal>> account : accounts.entrySet()) {
+                    statement.setString(1, account.getKey());
+                    statement.setBytes(2,
+                            this.codec.encode(account.getValue()));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException(
+                    "couldn't save " + accounts.size() + " accounts", e);
+        }
+    }
+
+    @Override
+    public Set<String> listIds() throws IOException {
+        Set<String> ids = new HashSet<>();
+        try (
+                Connection connection = this.dataSource.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery(SELECT_IDS)) {
+            while (result.next()) {
+                ids.add(result.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new IOException("couldn't list accounts", e);
+        }
+        return ids;
+    }
+
+    @Override
+    public void close() {
+        // the connection pool belongs to the SqlService
+    }
+
+}
@@ -39,74 +39,102 @@ import org.spongepowered.api.service.economy.transaction.TransferResult;
 
 final class Transactionals {
 
-    public static class TRData {
+    /**
+     * A transaction and its outcome in one object. Operations create one up
+     * front as a success and return it as is if it succeeds, so a successful
+     * transaction only allocates its result.
+     */
+    public static class TRData implements TransactionResult {
 
         private final Account account;
         private final Currency currency;
         private final BigDecimal amount;
         private final Set<Context> contexts;
         private final TransactionType transactionType;
+        private final ResultType resultType;
 
         public TRData(Account account, Currency currency, BigDecimal amount,
                 Set<Context> contexts, TransactionType transactionType) {
+            this(account, currency, amount, contexts, transactionType,
+                    ResultType.SUCCESS);
+        }
+
+        public TRData(Account account, Currency currency, BigDecimal amount,
+                Set<Context> contexts, TransactionType transactionType,
+                ResultType resultType) {
             this.account = account;
             this.currency = currency;
             this.amount = amount;
             this.contexts = contexts;
             this.transactionType = transactionType;
+            this.resultType = resultType;
         }
 
+        @Override
         public Account getAccount() {
             return this.account;
         }
 
+        @Override
         public Currency getCurrency() {
             return this.currency;
         }
 
+        @Override
         public BigDecimal getAmount() {
             return this.amount;
         }
 
+        @Override
         public Set<Context> getContexts() {
             return this.contexts;
         }
 
+        @Override
         public TransactionType getType() {
             return this.transactionType;
         }
 
-    }
-
-    private static class TransactionRImpl extends TRData
-            implements TransactionResult {
-
-        private final ResultType resultType;
-
-        private TransactionRImpl(Account account, Currency currency,
-                BigDecimal amount, Set<Context> contexts, ResultType resultType,
-                TransactionType transactionType) {
-            super(account, currency, amount, contexts, transactionType);
-            this.resultType = resultType;
-        }
-
         @Override
         public ResultType getResult() {
             return this.resultType;
         }
 
+        /**
+         * This transaction with the outcome {@code result}. Only allocates if
+         * the outcome is different.
+         */
+        public TRData withResult(ResultType result) {
+            if (result == this.resultType) {
+                return this;
+            }
+            return new TRData(this.account, this.currency, this.amount,
+                    this.contexts, this.transactionType, result);
+        }
+
     }
 
-    private static final class TransferRImpl extends TransactionRImpl
+    /**
+     * A {@link TRData} for a transfer, which is its own transfer result.
+     */
+    public static final class TransferData extends TRData
             implements TransferResult {
 
         private final Account accTo;
 
-        private TransferRImpl(Account account, Currency currency,
-                BigDecimal amount, Set<Context> contexts, ResultType resultType,
+        public TransferData(Account account, Currency currency,
+                BigDecimal amount, Set<Context> contexts,
                 TransactionType transactionType, Account accountTo) {
-            super(account, currency, amount, contexts, resultType,
-                    transactionType);
+            this(account, currency, amount, contexts, transactionType,
+                    ResultType.SUCCESS, accountTo);
+        }
+
+        private TransferData(Account account, Currency currency,
+                BigDecimal amount, Set<Context> contexts,
+                TransactionType transactionType, ResultType resultType,
+                Account accountTo) {
+            super(account, currency, amount, contexts, transactionType,
+                    resultType);
             this.accTo = accountTo;
         }
 
@@ -115,69 +143,79 @@ final class Transactionals {
             return this.accTo;
         }
 
+        @Override
+        public TransferData withResult(ResultType result) {
+            if (result == getResult()) {
+                return this;
+            }
+            return new TransferData(getAccount(), getCurrency(), getAmount(),
+                    getContexts(), getType(), result, this.accTo);
+        }
+
     }
 
     public static TransactionResult fail(TRData data) {
-        return fail(data.getAccount(), data.getCurrency(), data.getAmount(),
-                data.getContexts(), data.getType());
+        return data.withResult(ResultType.FAILED);
     }
 
     public static TransactionResult fail(Account acc, Currency cur,
             BigDecimal amount, Set<Context> context, TransactionType type) {
-        return new TransactionRImpl(acc, cur, amount, context,
-                ResultType.FAILED, type);
+        return new TRData(acc, cur, amount, context, type, ResultType.FAILED);
     }
 
     public static TransactionResult failNoFunds(TRData data) {
-        return failNoFunds(data.getAccount(), data.getCurrency(),
-                data.getAmount(), data.getContexts(), data.getType());
+        return data.withResult(ResultType.ACCOUNT_NO_FUNDS);
     }
 
     public static TransactionResult failNoFunds(Account acc, Currency cur,
             BigDecimal amount, Set<Context> context, TransactionType type) {
-        return new TransactionRImpl(acc, cur, amount, context,
-                ResultType.ACCOUNT_NO_FUNDS, type);
+        return new TRData(acc, cur, amount, context, type,
+                ResultType.ACCOUNT_NO_FUNDS);
     }
 
     public static TransactionResult failMaxSize(TRData data) {
-        return failMaxSize(data.getAccount(), data.getCurrency(),
-                data.getAmount(), data.getContexts(), data.getType());
+        return data.withResult(ResultType.ACCOUNT_NO_SPACE);
     }
 
     public static TransactionResult failMaxSize(Account acc, Currency cur,
             BigDecimal amount, Set<Context> context, TransactionType type) {
-        return new TransactionRImpl(acc, cur, amount, context,
-                ResultType.ACCOUNT_NO_SPACE, type);
+        return new TRData(acc, cur, amount, context, type,
+                ResultType.ACCOUNT_NO_SPACE);
     }
 
     public static TransactionResult failContextMismatch(TRData data) {
-        return failContextMismatch(data.getAccount(), data.getCurrency(),
-                data.getAmount(), data.getContexts(), data.getType());
+        return data.withResult(ResultType.CONTEXT_MISMATCH);
     }
 
     public static TransactionResult failContextMismatch(Account acc,
             Currency cur, BigDecimal amount, Set<Context> context,
             TransactionType type) {
-        return new TransactionRImpl(acc, cur, amount, context,
-                ResultType.CONTEXT_MISMATCH, type);
+        return new TRData(acc, cur, amount, context, type,
+                ResultType.CONTEXT_MISMATCH);
     }
 
     public static TransactionResult success(TRData data) {
-        return success(data.getAccount(), data.getCurrency(), data.getAmount(),
-                data.getContexts(), data.getType());
+        return data.withResult(ResultType.SUCCESS);
     }
 
     public static TransactionResult success(Account acc, Currency cur,
             BigDecimal amount, Set<Context> context, TransactionType type) {
-        return new TransactionRImpl(acc, cur, amount, context,
-                ResultType.SUCCESS, type);
+        return new TRData(acc, cur, amount, context, type);
     }
 
+    /**
+     * {@code res} as a transfer to {@code accTo}. Results of transactions
+     * that started out as a {@link TransferData} are returned as they are.
+     */
     public static TransferResult transfer(TransactionResult res,
             Account accTo) {
-        return new TransferRImpl(res.getAccount(), res.getCurrency(),
-                res.getAmount(), res.getContexts(), res.getResult(),
-                res.getType(), accTo);
+        if (res instanceof TransferData
+                && ((TransferData) res).getAccountTo() == accTo) {
+            return (TransferData) res;
+        }
+        return new TransferData(res.getAccount(), res.getCurrency(),
+                res.getAmount(), res.getContexts(), res.getType(),
+                res.getResult(), accTo);
     }
 
     public static EconomyTransactionEvent createEvent(Cause cause,
@@ -0,0 +1,75 @@
+/*
+ * This file is part of Currency☃, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) kenzierocks (Kenzie Togami) <http://kenzierocks.me>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package me.kenzierocks.plugins.currencysnowmen.implementation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The list of recently used accounts that is preloaded on startup. Stored as
+ * one account per line, prefixed with {@code U} for unique accounts and
+ * {@code V} for virtual ones.
+ */
+final class WarmSet {
+
+    static void save(Path file, Stream<CSAccount> accounts, int size)
+            throws IOException {
+        List<String> lines = accounts
+                .sorted(Comparator.comparingLong(CSAccount::getLastAccess)
+                        .reversed())
+                .limit(size)
+                .map(a -> (a instanceof CSUniqueAccount ? "U " : "V ")
+                        + a.getIdentifier())
+                .collect(Collectors.toList());
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Calls {@code consumer} with the id of each listed account and whether
+     * it is a unique account, most recently used first.
+     */
+    static void load(Path file, BiConsumer<String, Boolean> consumer)
+            throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.length() > 2 && line.charAt(1) == ' ') {
+                consumer.accept(line.substring(2), line.charAt(0) == 'U');
+            }
+        }
+    }
+
+    private WarmSet() {
+    }
+
+}